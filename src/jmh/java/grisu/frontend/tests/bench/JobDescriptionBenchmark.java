@@ -0,0 +1,127 @@
+package grisu.frontend.tests.bench;
+
+import grisu.control.ServiceInterface;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.standin.QueueModel;
+import grisu.frontend.tests.standin.QueueModel.QueueSpec;
+import grisu.frontend.tests.standin.StandInBackend;
+import grisu.model.info.dto.DtoProperties;
+import grisu.model.info.dto.Queue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Benchmarks the client-side work every test (and every production submitter)
+ * does before talking to a backend: building a {@link GrisuJob}, converting it
+ * to a property map, wrapping that in {@link DtoProperties} and matching a
+ * submission location against the {@link Queue}s the backend returned, the
+ * way clients do (by the string form of the queue). The stand-in's own queue
+ * lookups are harness code, not client code, and are measured separately by
+ * {@link StandInLookupBenchmark}.
+ *
+ * Jobs are built against the in-process stand-in backend, so no remote calls
+ * are included in the numbers. Run with <code>mvn -P jmh test</code>; the
+ * results include allocation rates from the GC profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobDescriptionBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		Options opts = new OptionsBuilder()
+				.include(JobDescriptionBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build();
+		new Runner(opts).run();
+	}
+
+	@Param({ "10", "1000" })
+	public int queueCount;
+
+	private ServiceInterface si;
+	private QueueModel model;
+	private GrisuJob job;
+	private Map<String, String> propertyMap;
+	private List<Queue> queues;
+	private String submissionLocation;
+
+	@Benchmark
+	public GrisuJob constructJob() {
+		GrisuJob j = new GrisuJob(si);
+		j.setJobname("benchmark");
+		j.setCommandline("echo HELLO WORLD");
+		j.setApplication("generic");
+		j.setWalltimeInSeconds(599);
+		return j;
+	}
+
+	@Benchmark
+	public DtoProperties createDto() {
+		return DtoProperties.createProperties(propertyMap);
+	}
+
+	@Benchmark
+	public DtoProperties jobToDto() {
+		return DtoProperties.createProperties(job
+				.getStringJobSubmissionPropertyMap());
+	}
+
+	@Benchmark
+	public boolean matchQueue() {
+		for (Queue q : queues) {
+			if (submissionLocation.equals(q.toString())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Benchmark
+	public Map<String, String> propertyMap() {
+		return job.getStringJobSubmissionPropertyMap();
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		model = new QueueModel();
+		for (int i = 0; i < queueCount; i++) {
+			model.addQueue(new QueueSpec("queue" + i, "host" + i + ".test",
+					600, Sets.newHashSet("/test/nesi"), Sets
+					.newHashSet("generic")));
+		}
+		si = StandInBackend.create(model);
+
+		job = constructJob();
+		propertyMap = job.getStringJobSubmissionPropertyMap();
+
+		queues = si.findQueues(DtoProperties.createProperties(propertyMap),
+				"/test/nesi");
+		// worst case, the location we look for is the last one
+		submissionLocation = queues.get(queues.size() - 1).toString();
+	}
+
+}
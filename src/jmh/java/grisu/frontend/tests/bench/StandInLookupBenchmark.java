@@ -0,0 +1,92 @@
+package grisu.frontend.tests.bench;
+
+import grisu.frontend.tests.standin.QueueModel;
+import grisu.frontend.tests.standin.QueueModel.QueueSpec;
+import grisu.frontend.tests.utils.InfoSystemSnapshot;
+import grisu.jcommons.constants.JobSubmissionProperty;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Benchmarks the queue lookups of the test harness's stand-in backend:
+ * scanning a {@link QueueModel} and the index of an
+ * {@link InfoSystemSnapshot}.
+ *
+ * This is harness code, not client code, so it's not part of the client
+ * benchmarks <code>mvn -P jmh test</code> runs. It only shows how much the
+ * stand-in adds to the client-overhead measurements made with it. Run its
+ * main class with the test classpath of the jmh profile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StandInLookupBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		Options opts = new OptionsBuilder().include(
+				StandInLookupBenchmark.class.getSimpleName()).build();
+		new Runner(opts).run();
+	}
+
+	@Param({ "10", "1000" })
+	public int queueCount;
+
+	private QueueModel model;
+	private InfoSystemSnapshot snapshot;
+	private Map<String, String> propertyMap;
+
+	@Benchmark
+	public List<QueueSpec> findQueuesModel() {
+		return model.findQueues(propertyMap, "/test/nesi");
+	}
+
+	@Benchmark
+	public List<String> findQueuesSnapshot() {
+		return snapshot.findQueues("/test/nesi", "generic", null, 599);
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		model = new QueueModel();
+		snapshot = new InfoSystemSnapshot();
+		for (int i = 0; i < queueCount; i++) {
+			model.addQueue(new QueueSpec("queue" + i, "host" + i + ".test",
+					600, Sets.newHashSet("/test/nesi"), Sets
+					.newHashSet("generic")));
+			// half of the queues are too short for the job
+			snapshot.add(new InfoSystemSnapshot.Entry("/test/nesi",
+					"generic", InfoSystemSnapshot.ANY, "queue" + i + ":host"
+							+ i + ".test", (i % 2 == 0) ? 300 : 600));
+		}
+		propertyMap = Maps.newHashMap();
+		propertyMap.put(JobSubmissionProperty.APPLICATIONNAME.toString(),
+				"generic");
+		propertyMap.put(JobSubmissionProperty.WALLTIME_IN_MINUTES.toString(),
+				"10");
+	}
+
+}
@@ -0,0 +1,231 @@
+package grisu.frontend.tests.load;
+
+import grisu.control.ServiceInterface;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.utils.AllocationProfiler;
+import grisu.frontend.tests.utils.LatencyStats;
+import grisu.frontend.tests.utils.Phase;
+import grisu.frontend.tests.utils.TestConfig;
+import grisu.frontend.tests.utils.TimedJob;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Runs jobs one after the other against a backend and measures what the
+ * client allocates per job, and whether it retains heap over time.
+ *
+ * Every job is a small echo job that is built, created, submitted, waited
+ * for, fetched and cleaned up, with the allocation of each {@link Phase}
+ * recorded by the {@link AllocationProfiler} (printed when the JVM exits).
+ * Every {@link TestConfig#getAllocationCheckpointInterval()} jobs the heap
+ * that is retained after a full GC is measured. Since no job is referenced
+ * after it's cleaned up, the retained heap should stay flat once caches are
+ * warm; the growth per job is estimated with a linear fit over all
+ * checkpoints but the first.
+ *
+ * The harness itself must not grow with the number of jobs, or the estimate
+ * measures it instead of the client. So the per-phase histograms of
+ * {@link LatencyStats} and {@link AllocationProfiler} are bounded to
+ * {@link #HISTOGRAM_MAX_SAMPLES} samples (unless
+ * {@link TestConfig#getHistogramMaxSamples()} is set), which are allocated
+ * with the first job, before the warm-up checkpoint. Only the checkpoints
+ * themselves grow, by a few bytes per
+ * {@link TestConfig#getAllocationCheckpointInterval()} jobs.
+ *
+ * {@link Phase#CONSTRUCTION} is only measured here, not by the tests.
+ *
+ * Runs {@link TestConfig#getAllocationSoakJobs()} jobs, or as many as fit in
+ * the specified duration (soak mode).
+ *
+ * Usage:
+ * <code>AllocationSoak &lt;backend&gt; [jobs] [durationInMinutes]</code>
+ */
+public class AllocationSoak {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(AllocationSoak.class);
+
+	public static final int HISTOGRAM_MAX_SAMPLES = 1024;
+
+	/**
+	 * Estimates the heap growth per job with a least squares fit.
+	 *
+	 * @param jobs
+	 *            the number of jobs at each checkpoint
+	 * @param heap
+	 *            the retained heap at each checkpoint
+	 * @return the growth in bytes per job, or 0 if there are less than two
+	 *         checkpoints
+	 */
+	public static double getGrowthPerJob(List<Integer> jobs, List<Long> heap) {
+		int n = jobs.size();
+		if (n < 2) {
+			return 0;
+		}
+		double meanX = 0;
+		double meanY = 0;
+		for (int i = 0; i < n; i++) {
+			meanX += jobs.get(i);
+			meanY += heap.get(i);
+		}
+		meanX /= n;
+		meanY /= n;
+		double cov = 0;
+		double var = 0;
+		for (int i = 0; i < n; i++) {
+			cov += (jobs.get(i) - meanX) * (heap.get(i) - meanY);
+			var += (jobs.get(i) - meanX) * (jobs.get(i) - meanX);
+		}
+		return (var == 0) ? 0 : cov / var;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 1) {
+			System.err
+					.println("Usage: AllocationSoak <backend> [jobs] [durationInMinutes]");
+			System.exit(1);
+		}
+
+		TestConfig config = TestConfig.getTestConfig();
+		config.setProfileAllocations(true);
+		if (config.getHistogramMaxSamples() <= 0) {
+			config.setHistogramMaxSamples(HISTOGRAM_MAX_SAMPLES);
+		}
+		if (!AllocationProfiler.isSupported()) {
+			System.err
+					.println("This JVM doesn't support per thread allocation counting.");
+			System.exit(1);
+		}
+
+		ServiceInterface si;
+		try {
+			si = config.getServiceInterface(args[0]);
+		} catch (RuntimeException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(1);
+			return;
+		}
+		int jobs = (args.length > 1) ? Integer.parseInt(args[1]) : config
+				.getAllocationSoakJobs();
+		long durationInMs = (args.length > 2) ? Long.parseLong(args[2]) * 60000L
+				: 0;
+
+		AllocationSoak soak = new AllocationSoak(config, args[0], si);
+		soak.run(jobs, durationInMs);
+		System.out.println(soak.getReport());
+
+		System.exit(soak.getFailedJobs() > 0 ? 1 : 0);
+	}
+
+	private final TestConfig config;
+	private final String backend;
+	private final ServiceInterface si;
+
+	private final List<Integer> checkpointJobs = Lists.newArrayList();
+	private final List<Long> checkpointHeap = Lists.newArrayList();
+	private int failedJobs = 0;
+
+	public AllocationSoak(TestConfig config, String backend,
+			ServiceInterface si) {
+		this.config = config;
+		this.backend = backend;
+		this.si = si;
+	}
+
+	private void checkpoint(int jobs) {
+		long heap = AllocationProfiler.getRetainedHeapInBytes();
+		checkpointJobs.add(jobs);
+		checkpointHeap.add(heap);
+		myLogger.info(String.format(
+				"%s: %d jobs, retained heap %.1f MB, gc time %d ms", backend,
+				jobs, heap / (1024.0 * 1024.0),
+				AllocationProfiler.getGcTimeInMs()));
+	}
+
+	public int getFailedJobs() {
+		return failedJobs;
+	}
+
+	public String getReport() {
+		StringBuffer report = new StringBuffer("Retained heap after jobs ("
+				+ backend + "):\n");
+		for (int i = 0; i < checkpointJobs.size(); i++) {
+			report.append(String.format("\t%8d jobs %10.1f MB%n",
+					checkpointJobs.get(i),
+					checkpointHeap.get(i) / (1024.0 * 1024.0)));
+		}
+		// the first checkpoint is taken before caches are warm
+		int from = Math.min(1, checkpointJobs.size());
+		report.append(String.format(
+				"\tgrowth: %.1f bytes per job (after warm-up), failed jobs: %d%n",
+				getGrowthPerJob(
+						checkpointJobs.subList(from, checkpointJobs.size()),
+						checkpointHeap.subList(from, checkpointHeap.size())),
+				failedJobs));
+		return report.toString();
+	}
+
+	/**
+	 * Runs the jobs, with a checkpoint before the first one and after every
+	 * {@link TestConfig#getAllocationCheckpointInterval()} jobs.
+	 *
+	 * @param jobs
+	 *            the number of jobs, if durationInMs is 0
+	 * @param durationInMs
+	 *            how long to run, or 0 to run a fixed number of jobs
+	 */
+	public void run(int jobs, long durationInMs) {
+
+		int interval = Math.max(1, config.getAllocationCheckpointInterval());
+		long end = System.currentTimeMillis() + durationInMs;
+
+		checkpoint(0);
+		int done = 0;
+		while ((durationInMs > 0) ? (System.currentTimeMillis() < end)
+				: (done < jobs)) {
+			runJob();
+			done++;
+			if ((done % interval) == 0) {
+				checkpoint(done);
+			}
+		}
+		if ((done % interval) != 0) {
+			checkpoint(done);
+		}
+	}
+
+	private void runJob() {
+		String jobname = config.createJobname("allocation");
+		try {
+			AllocationProfiler.Mark mark = AllocationProfiler.mark();
+			GrisuJob job = new GrisuJob(si);
+			job.setJobname(jobname);
+			job.setCommandline("echo " + config.getContent());
+			job.setApplication("generic");
+			AllocationProfiler.record(backend, Phase.CONSTRUCTION, mark);
+
+			TimedJob timed = new TimedJob(backend, job);
+			timed.createJob(config.getFqan());
+			timed.submitJob();
+			timed.waitForJobToFinish(2);
+
+			String stdout = timed.getStdOutContent();
+			if (!config.getContent().trim().equals(stdout.trim())) {
+				throw new RuntimeException("Unexpected stdout: " + stdout);
+			}
+		} catch (Exception e) {
+			failedJobs++;
+			myLogger.warn("Job " + jobname + " failed: "
+					+ e.getLocalizedMessage());
+		} finally {
+			config.cleanJob(si, jobname);
+		}
+	}
+
+}
@@ -0,0 +1,411 @@
+package grisu.frontend.tests.load;
+
+import grisu.control.JobConstants;
+import grisu.control.ServiceInterface;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.standin.StandInBackend;
+import grisu.frontend.tests.utils.JobWaiter;
+import grisu.frontend.tests.utils.LatencyHistogram;
+import grisu.frontend.tests.utils.StatusPoller;
+import grisu.frontend.tests.utils.TestConfig;
+import grisu.frontend.tests.utils.TimedJob;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Kills the job managers of a backend on a schedule while a steady stream of
+ * jobs runs, like <code>testKillSurvivesJobManagerRestart</code> does for a
+ * single job.
+ *
+ * {@link TestConfig#getChaosConcurrency()} workers each keep one
+ * <code>kill_me.sh</code> job (sleeping {@link #JOB_SECONDS}) in flight for
+ * {@link TestConfig#getChaosDurationInSeconds()}. Every
+ * {@link TestConfig#getChaosKillIntervalInSeconds()} the job managers are
+ * killed: on a real backend by running <code>kill_job_managers.sh</code> as a
+ * job, on the {@link StandInBackend} by simulating an outage of
+ * {@link #STAND_IN_OUTAGE_IN_MS}.
+ *
+ * Reported are
+ * <ul>
+ * <li>the throughput dip: completions per minute in the
+ * {@link #DIP_WINDOW_IN_MS} after each kill, compared to the rest of the
+ * run</li>
+ * <li>the status recovery latency: for every job in flight at a kill, the
+ * time until <code>getStatusString(true)</code> reports a correct state again
+ * (not undefined, and not failed or killed). The kill time is taken when the
+ * kill job became active, i.e. before the script kills the job managers, so
+ * the latency is an upper bound. On the stand-in the outage is simulated
+ * with a fixed length, so recovery is not measured there.</li>
+ * <li>lost jobs (never reported finished) and incorrectly stated jobs (final
+ * status doesn't match the output)</li>
+ * </ul>
+ *
+ * Usage: <code>ChaosLoad &lt;backend&gt;</code>
+ */
+public class ChaosLoad {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(ChaosLoad.class);
+
+	/**
+	 * Printed by <code>kill_me.sh</code> if it ran through.
+	 */
+	public static final String DONE_MARKER = "NORMAL_TERMINATION";
+
+	public static final int JOB_SECONDS = 30;
+	public static final long STAND_IN_OUTAGE_IN_MS = 15000;
+	public static final long DIP_WINDOW_IN_MS = 60000;
+	public static final int RECOVERY_TIMEOUT_IN_SECONDS = 300;
+	public static final int FINISH_TIMEOUT_IN_SECONDS = 1800;
+
+	/**
+	 * Whether a status is correct for a job that is expected to be in flight
+	 * or to have finished successfully.
+	 */
+	public static boolean isCorrectStatus(String status) {
+		if (StringUtils.isBlank(status)) {
+			return false;
+		}
+		return !status.equals(JobConstants
+				.translateStatus(JobConstants.UNDEFINED))
+				&& !status.equals(JobConstants
+						.translateStatus(JobConstants.FAILED))
+				&& !status.equals(JobConstants.KILLED_STRING);
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length != 1) {
+			System.err.println("Usage: ChaosLoad <backend>");
+			System.exit(1);
+		}
+
+		TestConfig config = TestConfig.getTestConfig();
+		ServiceInterface si;
+		try {
+			si = config.getServiceInterface(args[0]);
+		} catch (RuntimeException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(1);
+			return;
+		}
+
+		ChaosLoad chaos = new ChaosLoad(config, args[0], si);
+		chaos.run();
+		System.out.println(chaos.getReport());
+
+		System.exit(0);
+	}
+
+	private final TestConfig config;
+	private final String backend;
+	private final ServiceInterface si;
+
+	private final Set<GrisuJob> inFlight = Sets.newSetFromMap(Maps
+			.<GrisuJob, Boolean> newConcurrentMap());
+	private final List<Long> completions = Collections
+			.synchronizedList(Lists.<Long> newArrayList());
+	private final List<Long> kills = Collections.synchronizedList(Lists
+			.<Long> newArrayList());
+	private final LatencyHistogram recovery = new LatencyHistogram();
+	private final AtomicInteger submitted = new AtomicInteger();
+	private final AtomicInteger unrecovered = new AtomicInteger();
+	private final AtomicInteger lost = new AtomicInteger();
+	private final AtomicInteger incorrect = new AtomicInteger();
+	private long start;
+	private long end;
+
+	public ChaosLoad(TestConfig config, String backend, ServiceInterface si) {
+		this.config = config;
+		this.backend = backend;
+		this.si = si;
+	}
+
+	private static double perMinute(int count, long ms) {
+		return (count * 60000.0) / Math.max(1, ms);
+	}
+
+	/**
+	 * Summarizes the run.
+	 */
+	public String getReport() {
+		StringBuffer report = new StringBuffer();
+		List<Long> done;
+		List<Long> killTimes;
+		synchronized (completions) {
+			done = Lists.newArrayList(completions);
+		}
+		synchronized (kills) {
+			killTimes = Lists.newArrayList(kills);
+		}
+
+		// completions outside of any post-kill window give the baseline
+		int baselineCount = 0;
+		long dipTime = 0;
+		for (long k : killTimes) {
+			dipTime += Math.min(DIP_WINDOW_IN_MS, end - k);
+		}
+		for (long c : done) {
+			if (!isInDipWindow(c, killTimes)) {
+				baselineCount++;
+			}
+		}
+		double baseline = perMinute(baselineCount, (end - start) - dipTime);
+
+		report.append(String.format(
+				"Backend %s: %d jobs submitted, %d kills, baseline %.2f jobs/min%n",
+				backend, submitted.get(), killTimes.size(), baseline));
+		for (long k : killTimes) {
+			int count = 0;
+			for (long c : done) {
+				if ((c >= k) && (c < k + DIP_WINDOW_IN_MS)) {
+					count++;
+				}
+			}
+			double rate = perMinute(count,
+					Math.min(DIP_WINDOW_IN_MS, end - k));
+			report.append(String.format(
+					"\tkill at +%ds: %.2f jobs/min (dip %.0f%%)%n",
+					(k - start) / 1000, rate, (baseline > 0) ? (1 - rate
+							/ baseline) * 100 : 0.0));
+		}
+		if (StandInBackend.get(si) != null) {
+			report.append(String.format(
+					"\tstatus recovery: not measured, the stand-in outage is a fixed %d ms%n",
+					STAND_IN_OUTAGE_IN_MS));
+		} else {
+			report.append(String.format(
+					"\tstatus recovery (ms): %s, not recovered: %d%n",
+					recovery, unrecovered.get()));
+		}
+		report.append(String.format(
+				"\tlost jobs: %d, incorrectly stated jobs: %d", lost.get(),
+				incorrect.get()));
+		return report.toString();
+	}
+
+	private boolean isInDipWindow(long time, List<Long> killTimes) {
+		for (long k : killTimes) {
+			if ((time >= k) && (time < k + DIP_WINDOW_IN_MS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Kills the job managers and returns once they are gone.
+	 *
+	 * @return the time of the kill, taken before the job managers are killed
+	 */
+	private long killJobManagers() throws Exception {
+
+		StandInBackend standIn = StandInBackend.get(si);
+		if (standIn != null) {
+			long killTime = System.currentTimeMillis();
+			standIn.restartJobManagers(STAND_IN_OUTAGE_IN_MS);
+			return killTime;
+		}
+
+		String jobname = config.createJobname("chaos_kill");
+		try {
+			GrisuJob job = new GrisuJob(si);
+			job.setJobname(jobname);
+			job.setCommandline("bash "
+					+ config.getKillJobManagersScriptName() + " 1");
+			job.setApplication("generic");
+			job.addInputFileUrl(config.getKillJobManagersScript());
+			job.createJob(config.getFqan());
+			job.submitJob(true);
+			// the script waits a few seconds before it kills the job
+			// managers, so this is before the kill
+			if (!JobWaiter.waitFor(job, JobWaiter.activeFor(0), 120)) {
+				throw new RuntimeException("Kill job not active in time.");
+			}
+			long killTime = System.currentTimeMillis();
+			// batch backends only stage stdout back at the end, see
+			// TestJobSubmission
+			if (!JobWaiter.waitFor(job, JobWaiter.anyOf(
+					JobWaiter.stdoutContains("KILLED_JOBMANAGERS_"),
+					JobWaiter.activeFor(15000)), 120)) {
+				throw new RuntimeException("Job managers not killed in time.");
+			}
+			return killTime;
+		} finally {
+			config.cleanJob(si, jobname);
+		}
+	}
+
+	/**
+	 * Polls every job that was in flight at the time of a kill until its
+	 * status is correct again.
+	 */
+	private void measureRecovery(final long killTime) {
+		List<GrisuJob> affected = Lists.newArrayList(inFlight);
+		List<GrisuJob> pending = Lists.newArrayList(affected);
+		long deadline = killTime + (RECOVERY_TIMEOUT_IN_SECONDS * 1000L);
+
+		while (!pending.isEmpty() && (System.currentTimeMillis() < deadline)) {
+			for (GrisuJob job : Lists.newArrayList(pending)) {
+				try {
+					if (isCorrectStatus(job.getStatusString(true))) {
+						recovery.record(System.currentTimeMillis() - killTime);
+						pending.remove(job);
+					}
+				} catch (Exception e) {
+					// backend not answering yet
+				}
+			}
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		unrecovered.addAndGet(pending.size());
+	}
+
+	/**
+	 * Runs the job stream and the kills for the configured duration.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers
+	 */
+	public void run() throws InterruptedException {
+
+		start = System.currentTimeMillis();
+		final long stop = start + (config.getChaosDurationInSeconds() * 1000L);
+
+		final ExecutorService recoveryMonitors = Executors
+				.newCachedThreadPool(new ThreadFactoryBuilder()
+						.setNameFormat("chaos-recovery-%d").setDaemon(true)
+						.build());
+		ScheduledExecutorService killer = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+						.setNameFormat("chaos-killer").setDaemon(true).build());
+		int interval = config.getChaosKillIntervalInSeconds();
+		killer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					final long killTime = killJobManagers();
+					kills.add(killTime);
+					myLogger.info("Killed job managers of backend " + backend);
+					if (StandInBackend.get(si) != null) {
+						// recovery would only be the simulated outage
+						return;
+					}
+					recoveryMonitors.submit(new Runnable() {
+						public void run() {
+							measureRecovery(killTime);
+						}
+					});
+				} catch (Exception e) {
+					myLogger.warn("Can't kill job managers of backend "
+							+ backend + ": " + e.getLocalizedMessage());
+				}
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+
+		ExecutorService workers = Executors.newFixedThreadPool(
+				config.getChaosConcurrency(), new ThreadFactoryBuilder()
+						.setNameFormat("chaos-worker-%d").build());
+		List<Callable<Object>> tasks = Lists.newArrayList();
+		for (int i = 0; i < config.getChaosConcurrency(); i++) {
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					while (System.currentTimeMillis() < stop) {
+						runJob();
+					}
+					return null;
+				}
+			});
+		}
+
+		try {
+			workers.invokeAll(tasks);
+		} finally {
+			end = System.currentTimeMillis();
+			killer.shutdownNow();
+			workers.shutdown();
+			recoveryMonitors.shutdown();
+			recoveryMonitors.awaitTermination(RECOVERY_TIMEOUT_IN_SECONDS,
+					TimeUnit.SECONDS);
+		}
+	}
+
+	private void runJob() {
+		String jobname = config.createJobname("chaos");
+		GrisuJob job = new GrisuJob(si);
+		try {
+			job.setJobname(jobname);
+			job.setCommandline("bash " + config.getKillmeScriptName() + " "
+					+ JOB_SECONDS);
+			job.setApplication("generic");
+			job.addInputFileUrl(config.getKillmeScript());
+
+			TimedJob timed = new TimedJob(backend, job);
+			timed.createJob(config.getFqan());
+			timed.submitJob();
+			submitted.incrementAndGet();
+			inFlight.add(job);
+
+			// polled by the shared poller, which waits out undefined
+			// statuses until the deadline
+			int status;
+			try {
+				status = StatusPoller
+						.get(si)
+						.register(job, JobConstants.FINISHED_EITHER_WAY,
+								FINISH_TIMEOUT_IN_SECONDS * 1000L,
+								Integer.MAX_VALUE).get();
+			} catch (ExecutionException e) {
+				inFlight.remove(job);
+				lost.incrementAndGet();
+				myLogger.warn("Job " + jobname + " lost: "
+						+ e.getCause().getLocalizedMessage());
+				return;
+			}
+			inFlight.remove(job);
+
+			completions.add(System.currentTimeMillis());
+
+			boolean ranThrough = StringUtils.contains(job.getStdOutContent(),
+					DONE_MARKER);
+			if (ranThrough != (status == JobConstants.DONE)) {
+				incorrect.incrementAndGet();
+				myLogger.warn("Job " + jobname + " has status "
+						+ JobConstants.translateStatus(status)
+						+ " but its output says "
+						+ (ranThrough ? "done" : "not done"));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			myLogger.warn("Job " + jobname + " failed: "
+					+ e.getLocalizedMessage());
+		} finally {
+			inFlight.remove(job);
+			config.cleanJob(si, jobname);
+		}
+	}
+
+}
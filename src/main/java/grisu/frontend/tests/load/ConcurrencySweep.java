@@ -0,0 +1,296 @@
+package grisu.frontend.tests.load;
+
+import grisu.control.ServiceInterface;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.utils.LatencyHistogram;
+import grisu.frontend.tests.utils.SessionPool;
+import grisu.frontend.tests.utils.SessionPool.Session;
+import grisu.frontend.tests.utils.TestConfig;
+import grisu.frontend.tests.utils.TimedJob;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Closed-loop load test that finds how many concurrent submissions a backend
+ * handles before latency collapses.
+ *
+ * For every concurrency level (1, 2, 4, ... up to
+ * {@link TestConfig#getSweepMaxConcurrency()}) that many workers each run
+ * {@link TestConfig#getSweepJobsPerWorker()} simple echo jobs (like
+ * <code>TestJobSubmission.testSimpleGenericJob</code>), submitting the next
+ * one as soon as the previous one finished. So every level keeps its workers
+ * busy for about as long as the others, instead of the higher levels only
+ * measuring ramp-up and drain. Throughput and end-to-end latency are
+ * reported per level, together with the knee of the curve.
+ *
+ * If {@link TestConfig#isPooledSessions()} is set, every job checks out its
+ * own session from the backend's {@link SessionPool}.
+ *
+ * Usage: <code>ConcurrencySweep &lt;backend&gt;</code>
+ */
+public class ConcurrencySweep {
+
+	/**
+	 * The results for one concurrency level.
+	 */
+	public static class Level {
+
+		private final int concurrency;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicInteger failed = new AtomicInteger();
+		private long durationInMs;
+
+		public Level(int concurrency) {
+			this.concurrency = concurrency;
+		}
+
+		public int getConcurrency() {
+			return concurrency;
+		}
+
+		public int getFailed() {
+			return failed.get();
+		}
+
+		/**
+		 * The share of the jobs of this level that failed, between 0 and 1.
+		 */
+		public double getFailureRate() {
+			int total = latency.getCount() + getFailed();
+			return (total == 0) ? 0 : getFailed() / (double) total;
+		}
+
+		public double getJobsPerMinute() {
+			if (durationInMs <= 0) {
+				return 0;
+			}
+			return (latency.getCount() * 60000.0) / durationInMs;
+		}
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"concurrency=%-4d jobs/min=%8.2f failed=%d latency: %s",
+					concurrency, getJobsPerMinute(), getFailed(), latency);
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(ConcurrencySweep.class);
+
+	/**
+	 * The knee is the last level before throughput stops improving by at
+	 * least this factor...
+	 */
+	public static final double MIN_THROUGHPUT_GAIN = 1.1;
+
+	/**
+	 * ... or before p90 latency grows to more than this factor of the p90
+	 * latency at concurrency 1.
+	 */
+	public static final double MAX_LATENCY_FACTOR = 2.0;
+
+	/**
+	 * ... or before more than this share of the jobs fails.
+	 */
+	public static final double MAX_FAILURE_RATE = 0.05;
+
+	/**
+	 * Finds the knee of the throughput/latency curve.
+	 *
+	 * @param levels
+	 *            the measured levels, in increasing order of concurrency
+	 * @return the highest level that still scaled, or null if no level had
+	 *         few enough failures
+	 */
+	public static Level findKnee(List<Level> levels) {
+		Level knee = null;
+		long baseLatency = 0;
+		for (Level level : levels) {
+			// a level where (nearly) everything failed is the backend
+			// collapsing, unless no level worked yet
+			if ((level.getLatency().getCount() == 0)
+					|| (level.getFailureRate() > MAX_FAILURE_RATE)) {
+				if (knee != null) {
+					break;
+				}
+				continue;
+			}
+			if (knee == null) {
+				knee = level;
+				baseLatency = level.getLatency().getPercentile(90);
+				continue;
+			}
+			boolean scales = level.getJobsPerMinute() >= (knee
+					.getJobsPerMinute() * MIN_THROUGHPUT_GAIN);
+			boolean latencyOk = level.getLatency().getPercentile(90) <= (baseLatency * MAX_LATENCY_FACTOR);
+			if (!scales || !latencyOk) {
+				break;
+			}
+			knee = level;
+		}
+		return knee;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length != 1) {
+			System.err.println("Usage: ConcurrencySweep <backend>");
+			System.exit(1);
+		}
+
+		TestConfig config = TestConfig.getTestConfig();
+		ServiceInterface si;
+		try {
+			si = config.getServiceInterface(args[0]);
+		} catch (RuntimeException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(1);
+			return;
+		}
+
+		ConcurrencySweep sweep = new ConcurrencySweep(config, args[0], si);
+		List<Level> levels = sweep.run();
+
+		for (Level level : levels) {
+			System.out.println(level);
+		}
+		System.out.println("Knee: " + findKnee(levels));
+		if (config.isPooledSessions()) {
+			System.out.println("Sessions: " + config.getSessionPool(args[0]));
+		}
+
+		System.exit(0);
+	}
+
+	private final TestConfig config;
+	private final String backend;
+	private final ServiceInterface si;
+	private final SessionPool pool;
+
+	public ConcurrencySweep(TestConfig config, String backend,
+			ServiceInterface si) {
+		this.config = config;
+		this.backend = backend;
+		this.si = si;
+		this.pool = config.isPooledSessions() ? config
+				.getSessionPool(backend) : null;
+	}
+
+	private void runJob(Level level) {
+		String jobname = config.createJobname("sweep_c"
+				+ level.getConcurrency());
+		long start = System.currentTimeMillis();
+		Session session = null;
+		ServiceInterface si = this.si;
+		try {
+			if (pool != null) {
+				session = pool.checkout(config.getLoginTimeoutInSeconds());
+				si = session.getServiceInterface();
+			}
+			GrisuJob job = new GrisuJob(si);
+			job.setJobname(jobname);
+			job.setCommandline("echo " + config.getContent());
+			job.setApplication("generic");
+
+			TimedJob timed = new TimedJob(backend, job);
+			timed.createJob(config.getFqan());
+			timed.submitJob();
+			timed.waitForJobToFinish(2);
+
+			String stdout = timed.getStdOutContent();
+			if (!config.getContent().trim().equals(stdout.trim())) {
+				throw new RuntimeException("Unexpected stdout: " + stdout);
+			}
+			level.getLatency().record(System.currentTimeMillis() - start);
+		} catch (Exception e) {
+			level.failed.incrementAndGet();
+			myLogger.warn("Job " + jobname + " failed: "
+					+ e.getLocalizedMessage());
+		} finally {
+			config.cleanJob(si, jobname);
+			if (session != null) {
+				pool.release(session);
+			}
+		}
+	}
+
+	/**
+	 * Runs all concurrency levels.
+	 *
+	 * @return the results per level
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers
+	 */
+	public List<Level> run() throws InterruptedException {
+		List<Level> levels = Lists.newArrayList();
+		for (int c = 1; c <= config.getSweepMaxConcurrency(); c = c * 2) {
+			Level level = runLevel(c,
+					c * config.getSweepJobsPerWorker());
+			myLogger.info("Backend " + backend + ": " + level);
+			levels.add(level);
+		}
+		return levels;
+	}
+
+	/**
+	 * Runs the specified number of jobs with a fixed number of jobs in flight.
+	 *
+	 * @param concurrency
+	 *            the number of jobs in flight
+	 * @param jobs
+	 *            the total number of jobs to run
+	 * @return the results
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the workers
+	 */
+	public Level runLevel(int concurrency, int jobs)
+			throws InterruptedException {
+
+		final Level level = new Level(concurrency);
+		final AtomicInteger remaining = new AtomicInteger(jobs);
+
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+				new ThreadFactoryBuilder().setNameFormat(
+						"sweep-" + concurrency + "-%d").build());
+		List<Callable<Object>> workers = Lists.newArrayList();
+		for (int i = 0; i < concurrency; i++) {
+			workers.add(new Callable<Object>() {
+				public Object call() {
+					while (remaining.getAndDecrement() > 0) {
+						runJob(level);
+					}
+					return null;
+				}
+			});
+		}
+
+		long start = System.currentTimeMillis();
+		List<Future<Object>> futures = executor.invokeAll(workers);
+		level.durationInMs = System.currentTimeMillis() - start;
+		executor.shutdown();
+
+		for (Future<Object> f : futures) {
+			if (!f.isDone()) {
+				myLogger.warn("Worker didn't finish.");
+			}
+		}
+		return level;
+	}
+
+}
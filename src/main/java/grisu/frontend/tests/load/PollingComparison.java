@@ -0,0 +1,150 @@
+package grisu.frontend.tests.load;
+
+import grisu.control.JobConstants;
+import grisu.control.ServiceInterface;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.utils.CountingServiceInterface;
+import grisu.frontend.tests.utils.LatencyHistogram;
+import grisu.frontend.tests.utils.StatusPoller;
+import grisu.frontend.tests.utils.TestConfig;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Compares per-job polling (every waiter calls
+ * {@link GrisuJob#waitForJobToFinish(int)}) with the shared
+ * {@link StatusPoller}, for the same number of concurrent sleep jobs.
+ *
+ * Reports the number of backend calls made while waiting, split into status
+ * calls and all calls, and the latency from submission until the waiter was
+ * notified.
+ *
+ * Usage: <code>PollingComparison &lt;backend&gt; [jobs] [sleepSeconds]</code>
+ */
+public class PollingComparison {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(PollingComparison.class);
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 1) {
+			System.err
+					.println("Usage: PollingComparison <backend> [jobs] [sleepSeconds]");
+			System.exit(1);
+		}
+
+		TestConfig config = TestConfig.getTestConfig();
+		ServiceInterface si;
+		try {
+			si = config.getServiceInterface(args[0]);
+		} catch (RuntimeException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(1);
+			return;
+		}
+		int jobs = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+		int sleep = (args.length > 2) ? Integer.parseInt(args[2]) : 30;
+
+		PollingComparison c = new PollingComparison(config,
+				CountingServiceInterface.wrap(si));
+		System.out.println("per-job polling: " + c.run(jobs, sleep, false));
+		System.out.println("shared poller:   " + c.run(jobs, sleep, true));
+
+		System.exit(0);
+	}
+
+	private final TestConfig config;
+	private final ServiceInterface si;
+	private final CountingServiceInterface counter;
+
+	public PollingComparison(TestConfig config, ServiceInterface countingSi) {
+		this.config = config;
+		this.si = countingSi;
+		this.counter = CountingServiceInterface.get(countingSi);
+	}
+
+	/**
+	 * Submits the jobs, then waits for all of them to finish.
+	 *
+	 * @return a summary of backend calls and wait latency
+	 */
+	public String run(int jobCount, int sleepSeconds, boolean sharedPoller)
+			throws Exception {
+
+		final Map<GrisuJob, Long> submitted = Maps.newLinkedHashMap();
+		try {
+			for (int i = 0; i < jobCount; i++) {
+				GrisuJob job = new GrisuJob(si);
+				job.setJobname(config.createJobname("polling"));
+				job.setCommandline("sleep " + sleepSeconds);
+				job.setApplication("generic");
+				job.createJob(config.getFqan());
+				job.submitJob(true);
+				submitted.put(job, System.currentTimeMillis());
+			}
+
+			counter.reset();
+			final LatencyHistogram latency = new LatencyHistogram();
+
+			if (sharedPoller) {
+				StatusPoller poller = StatusPoller.get(si);
+				Map<GrisuJob, Future<Integer>> futures = Maps
+						.newLinkedHashMap();
+				for (GrisuJob job : submitted.keySet()) {
+					futures.put(job, poller.register(job,
+							JobConstants.FINISHED_EITHER_WAY));
+				}
+				for (GrisuJob job : futures.keySet()) {
+					try {
+						futures.get(job).get();
+					} catch (ExecutionException e) {
+						myLogger.warn("Waiting for job " + job.getJobname()
+								+ " failed: "
+								+ e.getCause().getLocalizedMessage());
+						continue;
+					}
+					latency.record(System.currentTimeMillis()
+							- submitted.get(job));
+				}
+			} else {
+				ExecutorService executor = Executors
+						.newFixedThreadPool(jobCount);
+				List<Callable<Object>> waiters = Lists.newArrayList();
+				for (final GrisuJob job : submitted.keySet()) {
+					waiters.add(new Callable<Object>() {
+						public Object call() {
+							job.waitForJobToFinish(2);
+							latency.record(System.currentTimeMillis()
+									- submitted.get(job));
+							return null;
+						}
+					});
+				}
+				executor.invokeAll(waiters);
+				executor.shutdown();
+			}
+
+			return String.format(
+					"status calls=%d, all calls=%d, submit-to-notify (ms): %s",
+					counter.getCount("status"), counter.getTotal(), latency);
+		} finally {
+			for (GrisuJob job : submitted.keySet()) {
+				config.cleanJob(si, job.getJobname());
+			}
+		}
+	}
+
+}
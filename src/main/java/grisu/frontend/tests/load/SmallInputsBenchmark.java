@@ -0,0 +1,225 @@
+package grisu.frontend.tests.load;
+
+import grisu.control.ServiceInterface;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.utils.BundledStaging;
+import grisu.frontend.tests.utils.Input;
+import grisu.frontend.tests.utils.InputGenerator;
+import grisu.frontend.tests.utils.StagingManifest;
+import grisu.frontend.tests.utils.TestConfig;
+import grisu.frontend.tests.utils.TimedJob;
+import grisu.model.FileManager;
+import grisu.model.GrisuRegistryManager;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Measures how staging time grows with the number of small input files of a
+ * job.
+ *
+ * For every count in {@link TestConfig#getSmallInputCounts()} three jobs are
+ * submitted, each with that many inputs of
+ * {@link TestConfig#getSmallInputSizeInBytes()} bytes:
+ *
+ * <ul>
+ * <li>local files, one transfer per file</li>
+ * <li>the same local files, bundled into one archive (see
+ * {@link BundledStaging})</li>
+ * <li>remote files in {@link TestConfig#getGsiftpRemoteInputParent()}, one
+ * transfer per file (they are uploaded once and reused on later runs, see
+ * {@link StagingManifest})</li>
+ * </ul>
+ *
+ * Staging time is the time to prepare the inputs (adding them to the job,
+ * or packing the archive for the bundled mode) plus the submission, minus
+ * the submission time of a job without inputs that is submitted first, so
+ * the submission latency of the backend is not counted as staging. It is
+ * reported in total and per file, together with its parts. Every job runs
+ * <code>ls</code>, and its output is checked for all the input files.
+ *
+ * Usage: <code>SmallInputsBenchmark &lt;backend&gt;</code>
+ */
+public class SmallInputsBenchmark {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(SmallInputsBenchmark.class);
+
+	public static final String SMALL_INPUTS_DIR = "small-inputs";
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length != 1) {
+			System.err.println("Usage: SmallInputsBenchmark <backend>");
+			System.exit(1);
+		}
+
+		TestConfig config = TestConfig.getTestConfig();
+		ServiceInterface si;
+		try {
+			si = config.getServiceInterface(args[0]);
+		} catch (RuntimeException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(1);
+			return;
+		}
+
+		SmallInputsBenchmark b = new SmallInputsBenchmark(config, args[0], si);
+		for (int count : config.getSmallInputCounts()) {
+			b.run(count);
+		}
+
+		System.exit(0);
+	}
+
+	private final TestConfig config;
+	private final String backend;
+	private final ServiceInterface si;
+	private final FileManager fm;
+
+	public SmallInputsBenchmark(TestConfig config, String backend,
+			ServiceInterface si) {
+		this.config = config;
+		this.backend = backend;
+		this.si = si;
+		this.fm = GrisuRegistryManager.getDefault(si).getFileManager();
+	}
+
+	/**
+	 * Generates the local input files (reusing existing ones).
+	 */
+	private List<File> createInputs(int count) {
+		File dir = new File(Input.INPUT_FILES_DIR, SMALL_INPUTS_DIR);
+		List<File> files = Lists.newArrayList();
+		for (int i = 0; i < count; i++) {
+			File f = new File(dir, "small-" + i + ".bin");
+			if (!f.exists() || (f.length() != config.getSmallInputSizeInBytes())) {
+				InputGenerator.generate(f, config.getSmallInputSizeInBytes(), i);
+			}
+			files.add(f);
+		}
+		return files;
+	}
+
+	/**
+	 * Runs the three staging modes for one number of input files.
+	 *
+	 * @param count
+	 *            the number of input files
+	 * @throws Exception
+	 *             if the remote inputs can't be set up
+	 */
+	public void run(int count) throws Exception {
+
+		List<File> files = createInputs(count);
+		List<String> local = Lists.newArrayList();
+		List<String> names = Lists.newArrayList();
+		for (File f : files) {
+			local.add(f.getAbsolutePath());
+			names.add(f.getName());
+		}
+
+		String remoteParent = config.getGsiftpRemoteInputParent() + "/"
+				+ SMALL_INPUTS_DIR;
+		List<String> remote = Lists.newArrayList();
+		for (File f : files) {
+			StagingManifest.getDefault().ensureStaged(backend, fm,
+					f.getAbsolutePath(), remoteParent);
+			remote.add(remoteParent + "/" + f.getName());
+		}
+
+		long[] baseline = runJob(0, Lists.<String> newArrayList(),
+				Lists.<String> newArrayList(), false);
+		if (baseline == null) {
+			System.out.println(String.format(
+					"%s %5d files: baseline job FAILED", backend, count));
+			return;
+		}
+		long baselineSubmit = baseline[1];
+
+		report(count, "local per-file", baselineSubmit,
+				runJob(count, local, names, false));
+		report(count, "local bundled", baselineSubmit,
+				runJob(count, local, names, true));
+		report(count, "remote per-file", baselineSubmit,
+				runJob(count, remote, names, false));
+	}
+
+	private void report(int count, String mode, long baselineSubmit,
+			long[] times) {
+		if (times == null) {
+			System.out.println(String.format("%s %5d files, %-16s: FAILED",
+					backend, count, mode));
+			return;
+		}
+		long staging = Math.max(0, (times[0] + times[1]) - baselineSubmit);
+		System.out.println(String.format(
+				"%s %5d files, %-16s: staging %8d ms (%.1f ms/file), "
+						+ "prepare %d ms, submit %d ms, submit without inputs %d ms",
+				backend, count, mode, staging, staging / (double) count,
+				times[0], times[1], baselineSubmit));
+	}
+
+	/**
+	 * Submits one job.
+	 *
+	 * @return the time it took to prepare the inputs (including packing them)
+	 *         and the time the submission (including staging) took, or null
+	 *         if the job failed or didn't see all its inputs
+	 */
+	private long[] runJob(int count, List<String> inputs, List<String> names,
+			boolean bundled) {
+
+		String jobname = config.createJobname("small_inputs_" + count
+				+ (bundled ? "_bundled" : ""));
+		File archive = null;
+		try {
+			GrisuJob job = new GrisuJob(si);
+			job.setJobname(jobname);
+			job.setApplication("generic");
+			long start = System.currentTimeMillis();
+			if (bundled) {
+				archive = BundledStaging.stage(job, "ls", inputs);
+			} else {
+				job.setCommandline("ls");
+				for (String input : inputs) {
+					job.addInputFileUrl(input);
+				}
+			}
+			long prepareTime = System.currentTimeMillis() - start;
+
+			TimedJob timed = new TimedJob(backend, job);
+			timed.createJob(config.getFqan());
+			start = System.currentTimeMillis();
+			timed.submitJob();
+			long submitTime = System.currentTimeMillis() - start;
+			timed.waitForJobToFinish(3);
+
+			String stdout = timed.getStdOutContent();
+			for (String name : names) {
+				if (!StringUtils.contains(stdout, name)) {
+					myLogger.warn("Job " + jobname + " is missing input "
+							+ name);
+					return null;
+				}
+			}
+			return new long[] { prepareTime, submitTime };
+		} catch (Exception e) {
+			myLogger.warn("Job " + jobname + " failed: "
+					+ e.getLocalizedMessage());
+			return null;
+		} finally {
+			config.cleanJob(si, jobname);
+			if (archive != null) {
+				archive.delete();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package grisu.frontend.tests.load;
+
+import grisu.control.ServiceInterface;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.utils.Input;
+import grisu.frontend.tests.utils.InputGenerator;
+import grisu.frontend.tests.utils.TestConfig;
+import grisu.frontend.tests.utils.TimedJob;
+import grisu.model.FileManager;
+import grisu.model.GrisuRegistryManager;
+
+import java.io.File;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how fast large input files get to a backend.
+ *
+ * For every size in {@link TestConfig#getStagingBenchmarkSizesInMb()} a
+ * synthetic input file is generated (see {@link InputGenerator}) and
+ *
+ * <ul>
+ * <li>copied to {@link TestConfig#getGsiftpRemoteInputParent()} with
+ * {@link FileManager#cp(String, String, boolean)}</li>
+ * <li>staged into a job with <code>addInputFileUrl</code>; the job runs
+ * <code>md5sum</code> on it, so the transferred content is verified as
+ * well</li>
+ * </ul>
+ *
+ * Both are reported in MB/s. The copy rate only includes the transfer, the
+ * staging rate is end-to-end: it's measured over the whole submission, so
+ * it includes the submission latency of the backend and is only comparable
+ * between backends for large files. A checksum mismatch fails the run.
+ *
+ * Usage: <code>StagingThroughputBenchmark &lt;backend&gt;</code>
+ */
+public class StagingThroughputBenchmark {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(StagingThroughputBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length != 1) {
+			System.err.println("Usage: StagingThroughputBenchmark <backend>");
+			System.exit(1);
+		}
+
+		TestConfig config = TestConfig.getTestConfig();
+		ServiceInterface si;
+		try {
+			si = config.getServiceInterface(args[0]);
+		} catch (RuntimeException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(1);
+			return;
+		}
+
+		StagingThroughputBenchmark b = new StagingThroughputBenchmark(config,
+				args[0], si);
+		for (int size : config.getStagingBenchmarkSizesInMb()) {
+			b.run(size);
+		}
+
+		System.exit(0);
+	}
+
+	private static double mbPerSecond(long bytes, long ms) {
+		return (bytes / (double) InputGenerator.MB) / (Math.max(1, ms) / 1000.0);
+	}
+
+	private final TestConfig config;
+	private final String backend;
+	private final ServiceInterface si;
+	private final FileManager fm;
+
+	public StagingThroughputBenchmark(TestConfig config, String backend,
+			ServiceInterface si) {
+		this.config = config;
+		this.backend = backend;
+		this.si = si;
+		this.fm = GrisuRegistryManager.getDefault(si).getFileManager();
+	}
+
+	/**
+	 * Runs the copy and staging benchmark for one file size.
+	 *
+	 * @param sizeInMb
+	 *            the size of the input file
+	 * @throws Exception
+	 *             if the transfer or the job fails, or the staged file
+	 *             differs
+	 */
+	public void run(int sizeInMb) throws Exception {
+
+		String name = "staging-" + sizeInMb + "mb.bin";
+		File input = new File(Input.INPUT_FILES_DIR, name);
+		long size = sizeInMb * InputGenerator.MB;
+
+		long start = System.currentTimeMillis();
+		String checksum = InputGenerator.generate(input, size, sizeInMb);
+		myLogger.info("Generated " + input + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		// direct copy
+		String remote = config.getGsiftpRemoteInputParent() + "/" + name;
+		start = System.currentTimeMillis();
+		fm.cp(input.getAbsolutePath(), config.getGsiftpRemoteInputParent(),
+				true);
+		long cpTime = System.currentTimeMillis() - start;
+		if (fm.getFileSize(remote) != size) {
+			throw new RuntimeException("Remote copy of " + name
+					+ " has wrong size.");
+		}
+		fm.deleteFile(remote);
+
+		// staging into a job
+		String jobname = config.createJobname("staging_" + sizeInMb + "mb");
+		try {
+			GrisuJob job = new GrisuJob(si);
+			job.setJobname(jobname);
+			job.setCommandline("md5sum " + name);
+			job.setApplication("generic");
+			job.addInputFileUrl(input.getAbsolutePath());
+
+			TimedJob timed = new TimedJob(backend, job);
+			timed.createJob(config.getFqan());
+			start = System.currentTimeMillis();
+			timed.submitJob();
+			long stagingTime = System.currentTimeMillis() - start;
+			timed.waitForJobToFinish(4);
+
+			String stdout = timed.getStdOutContent();
+			if (!StringUtils.contains(stdout, checksum)) {
+				throw new RuntimeException("Checksum mismatch for staged "
+						+ name + ", expected " + checksum + ", got: " + stdout);
+			}
+
+			System.out.println(String.format(
+					"%s %6d MB: cp %8.2f MB/s, submit incl. staging (end-to-end) %8.2f MB/s",
+					backend, sizeInMb, mbPerSecond(size, cpTime),
+					mbPerSecond(size, stagingTime)));
+		} finally {
+			config.cleanJob(si, jobname);
+			input.delete();
+		}
+	}
+
+}
@@ -0,0 +1,283 @@
+package grisu.frontend.tests.load;
+
+import grisu.control.JobConstants;
+import grisu.control.ServiceInterface;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.utils.BundledStaging;
+import grisu.frontend.tests.utils.Input;
+import grisu.frontend.tests.utils.InputGenerator;
+import grisu.frontend.tests.utils.JobTrace;
+import grisu.frontend.tests.utils.JobTrace.Entry;
+import grisu.frontend.tests.utils.LatencyHistogram;
+import grisu.frontend.tests.utils.TestConfig;
+import grisu.frontend.tests.utils.StatusPoller;
+import grisu.frontend.tests.utils.TimedJob;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Replays a recorded {@link JobTrace} against a backend.
+ *
+ * Every job is submitted at its original offset from the first job, divided
+ * by the speed factor (so a factor of 2 replays a one hour trace in 30
+ * minutes). Each replayed job keeps the original fqan and walltime, and gets
+ * synthetic input files of the original sizes (see {@link InputGenerator}),
+ * bundled into one archive if {@link TestConfig#isBundledStaging()} is set.
+ * It runs <code>sleep</code> for the original runtime as a
+ * <code>generic</code> job, so only the arrival rate is scaled, not the work
+ * per job. The original application is only kept as a label in the job name,
+ * since the application may not provide <code>sleep</code> (or not exist on
+ * the backend the trace is replayed on).
+ *
+ * Throughput, queue wait and failure rate of the replay are reported next to
+ * the ones of the original trace. So is the dispatch lag, i.e. how late jobs
+ * were submitted compared to the schedule, which shows when the client (not
+ * the backend) can't keep up.
+ *
+ * Usage: <code>TraceReplay &lt;backend&gt; &lt;traceFile&gt; [speed]</code>
+ */
+public class TraceReplay {
+
+	/**
+	 * Throughput, queue wait and failures of a set of jobs.
+	 */
+	public static class Stats {
+
+		private final String name;
+		private final LatencyHistogram queueWait = new LatencyHistogram();
+		private final AtomicInteger jobs = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+		private long durationInMs;
+
+		public Stats(String name) {
+			this.name = name;
+		}
+
+		public double getFailureRate() {
+			return (jobs.get() == 0) ? 0 : failed.get() / (double) jobs.get();
+		}
+
+		public double getJobsPerMinute() {
+			return (jobs.get() * 60000.0) / Math.max(1, durationInMs);
+		}
+
+		public LatencyHistogram getQueueWait() {
+			return queueWait;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%-10s jobs=%d jobs/min=%8.2f failed=%5.1f%% queue wait (ms): %s",
+					name, jobs.get(), getJobsPerMinute(),
+					getFailureRate() * 100, queueWait);
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(TraceReplay.class);
+
+	/**
+	 * Calculates the stats of the original trace.
+	 */
+	public static Stats getOriginalStats(List<Entry> entries) {
+		Stats original = new Stats("original");
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		for (Entry e : entries) {
+			original.jobs.incrementAndGet();
+			if (e.isFailed()) {
+				original.failed.incrementAndGet();
+			}
+			original.queueWait.record(e.getQueueWaitInMs());
+			first = Math.min(first, e.getSubmitTime());
+			last = Math.max(last, e.getSubmitTime() + e.getQueueWaitInMs()
+					+ e.getRuntimeInMs());
+		}
+		original.durationInMs = entries.isEmpty() ? 0 : last - first;
+		return original;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 2) {
+			System.err
+					.println("Usage: TraceReplay <backend> <traceFile> [speed]");
+			System.exit(1);
+		}
+
+		TestConfig config = TestConfig.getTestConfig();
+		ServiceInterface si;
+		try {
+			si = config.getServiceInterface(args[0]);
+		} catch (RuntimeException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(1);
+			return;
+		}
+		List<Entry> entries = JobTrace.read(new File(args[1]));
+		double speed = (args.length > 2) ? Double.parseDouble(args[2]) : 1.0;
+
+		TraceReplay replay = new TraceReplay(config, args[0], si);
+		Stats replayed = replay.run(entries, speed);
+
+		System.out.println(getOriginalStats(entries));
+		System.out.println(replayed);
+		System.out.println("dispatch lag (ms): " + replay.getDispatchLag());
+
+		System.exit(0);
+	}
+
+	private final TestConfig config;
+	private final String backend;
+	private final ServiceInterface si;
+
+	private final LatencyHistogram dispatchLag = new LatencyHistogram();
+
+	public TraceReplay(TestConfig config, String backend, ServiceInterface si) {
+		this.config = config;
+		this.backend = backend;
+		this.si = si;
+	}
+
+	/**
+	 * How late jobs were submitted compared to the (scaled) schedule.
+	 */
+	public LatencyHistogram getDispatchLag() {
+		return dispatchLag;
+	}
+
+	/**
+	 * Returns the i-th input file of a job, with the specified size. Jobs
+	 * share the files, but the inputs of one job have distinct names.
+	 */
+	private synchronized File getInputFile(int index, long size) {
+		File file = new File(Input.INPUT_FILES_DIR, "trace-" + index + "-"
+				+ size + ".bin");
+		if (!file.exists() || (file.length() != size)) {
+			InputGenerator.generate(file, size, size + index);
+		}
+		return file;
+	}
+
+	/**
+	 * Replays the trace and waits for all jobs to finish.
+	 *
+	 * @param entries
+	 *            the trace, sorted by submission time
+	 * @param speed
+	 *            the factor to speed up arrivals by
+	 * @return the stats of the replay
+	 * @throws InterruptedException
+	 *             if interrupted while dispatching or waiting
+	 */
+	public Stats run(List<Entry> entries, double speed)
+			throws InterruptedException {
+
+		final Stats stats = new Stats("replay x" + speed);
+		if (entries.isEmpty()) {
+			return stats;
+		}
+
+		// one thread per job in flight, virtual if possible
+		ExecutorService executor = UserSimulation.newUserExecutor(config
+				.getMaxPlatformUserThreads());
+		List<Future<?>> jobs = Lists.newArrayList();
+
+		long first = entries.get(0).getSubmitTime();
+		long start = System.currentTimeMillis();
+		try {
+			for (final Entry e : entries) {
+				final long due = start
+						+ (long) ((e.getSubmitTime() - first) / speed);
+				long wait = due - System.currentTimeMillis();
+				if (wait > 0) {
+					Thread.sleep(wait);
+				}
+				jobs.add(executor.submit(new Runnable() {
+					public void run() {
+						dispatchLag.record(Math.max(0,
+								System.currentTimeMillis() - due));
+						runJob(e, stats);
+					}
+				}));
+			}
+			for (Future<?> f : jobs) {
+				try {
+					f.get();
+				} catch (Exception ex) {
+					myLogger.warn("Replay job failed: " + ex.getLocalizedMessage());
+				}
+			}
+		} finally {
+			stats.durationInMs = System.currentTimeMillis() - start;
+			executor.shutdownNow();
+		}
+		myLogger.info("Backend " + backend + ": " + stats);
+		return stats;
+	}
+
+	private void runJob(Entry e, Stats stats) {
+		stats.jobs.incrementAndGet();
+		// the original application is only a label, the job runs sleep,
+		// which is only guaranteed to be available as generic job
+		String label = StringUtils.isBlank(e.getApplication()) ? "generic"
+				: e.getApplication().replaceAll("[^A-Za-z0-9]", "");
+		String jobname = config.createJobname("replay_" + label);
+		File archive = null;
+		try {
+			GrisuJob job = new GrisuJob(si);
+			job.setJobname(jobname);
+			job.setApplication("generic");
+			if (e.getWalltimeInSeconds() > 0) {
+				job.setWalltimeInSeconds(e.getWalltimeInSeconds());
+			}
+			String commandline = "sleep "
+					+ (long) Math.ceil(e.getRuntimeInMs() / 1000.0);
+			List<String> inputs = Lists.newArrayList();
+			for (int i = 0; i < e.getInputSizes().size(); i++) {
+				inputs.add(getInputFile(i, e.getInputSizes().get(i))
+						.getAbsolutePath());
+			}
+			if (config.isBundledStaging()) {
+				archive = BundledStaging.stage(job, commandline, inputs);
+			} else {
+				job.setCommandline(commandline);
+				for (String input : inputs) {
+					job.addInputFileUrl(input);
+				}
+			}
+
+			TimedJob timed = new TimedJob(backend, job, StatusPoller.get(si));
+			timed.createJob(StringUtils.isBlank(e.getFqan()) ? config.getFqan()
+					: e.getFqan());
+			timed.submitJob();
+			boolean finished = timed.waitForJobToFinish(5);
+			stats.queueWait.record(timed.getQueueWaitInMs());
+
+			if (!finished || (timed.getStatus() != JobConstants.DONE)) {
+				stats.failed.incrementAndGet();
+			}
+		} catch (Exception ex) {
+			stats.failed.incrementAndGet();
+			myLogger.warn("Job " + jobname + " failed: "
+					+ ex.getLocalizedMessage());
+		} finally {
+			config.cleanJob(si, jobname);
+			if (archive != null) {
+				archive.delete();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,361 @@
+package grisu.frontend.tests.load;
+
+import grisu.control.ServiceInterface;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.utils.LatencyHistogram;
+import grisu.frontend.tests.utils.LatencyStats;
+import grisu.frontend.tests.utils.SessionPool;
+import grisu.frontend.tests.utils.SessionPool.Session;
+import grisu.frontend.tests.utils.TestConfig;
+import grisu.frontend.tests.utils.StatusPoller;
+import grisu.frontend.tests.utils.TimedJob;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Simulates many concurrent front-end users against one backend.
+ *
+ * Every user runs on its own thread. It submits
+ * {@link TestConfig#getJobsPerSimulatedUser()} echo jobs so that they are in
+ * flight at the same time, then waits for each of them, fetches its output
+ * and cleans it up. On a JVM that supports virtual threads (Java 21+) every
+ * user gets a virtual thread, so thousands of users don't need thousands of
+ * platform threads. On older JVMs a pool of at most
+ * {@link TestConfig#getMaxPlatformUserThreads()} threads is used instead, so
+ * more users than that run degraded: they wait for a thread instead of
+ * running concurrently.
+ *
+ * If {@link TestConfig#isPooledSessions()} is set, every user checks out its
+ * own session from the backend's {@link SessionPool} for the duration of its
+ * session, like a real user with its own login. Then the pool size also
+ * limits how many users are active at the same time.
+ *
+ * Reports the end-to-end latency per user session, the per-phase backend
+ * latencies (see {@link LatencyStats}), and the client resources used: peak
+ * platform thread count and peak heap usage, sampled once per second.
+ *
+ * Usage: <code>UserSimulation &lt;backend&gt; [users] [jobsPerUser]</code>
+ */
+public class UserSimulation {
+
+	/**
+	 * The results of one simulation run.
+	 */
+	public static class Result {
+
+		private final int users;
+		private final int jobsPerUser;
+		private final boolean virtualThreads;
+		private final LatencyHistogram sessionLatency = new LatencyHistogram();
+		private final AtomicInteger failedJobs = new AtomicInteger();
+		private final AtomicInteger failedSessions = new AtomicInteger();
+		private int peakThreads = 0;
+		private long peakHeap = 0;
+		private long durationInMs;
+
+		Result(int users, int jobsPerUser, boolean virtualThreads) {
+			this.users = users;
+			this.jobsPerUser = jobsPerUser;
+			this.virtualThreads = virtualThreads;
+		}
+
+		public long getDurationInMs() {
+			return durationInMs;
+		}
+
+		public int getFailedJobs() {
+			return failedJobs.get();
+		}
+
+		/**
+		 * The number of users that didn't get a session, and so didn't run
+		 * any jobs. They are not part of {@link #getSessionLatency()}.
+		 */
+		public int getFailedSessions() {
+			return failedSessions.get();
+		}
+
+		public synchronized long getPeakHeapInBytes() {
+			return peakHeap;
+		}
+
+		public synchronized int getPeakThreads() {
+			return peakThreads;
+		}
+
+		public LatencyHistogram getSessionLatency() {
+			return sessionLatency;
+		}
+
+		public boolean isVirtualThreads() {
+			return virtualThreads;
+		}
+
+		private synchronized void sample(ThreadMXBean threads,
+				MemoryMXBean memory) {
+			peakThreads = Math.max(peakThreads, threads.getThreadCount());
+			peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage()
+					.getUsed());
+		}
+
+		@Override
+		public String toString() {
+			return String
+					.format("users=%d jobs/user=%d %s threads, %d ms, failed jobs=%d, "
+							+ "failed sessions=%d, peak platform threads=%d, peak heap=%.1f MB, "
+							+ "session latency: %s",
+							users, jobsPerUser, virtualThreads ? "virtual"
+									: "platform", durationInMs,
+							getFailedJobs(), getFailedSessions(),
+							getPeakThreads(),
+							getPeakHeapInBytes() / (1024.0 * 1024.0),
+							sessionLatency);
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(UserSimulation.class);
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 1) {
+			System.err
+					.println("Usage: UserSimulation <backend> [users] [jobsPerUser]");
+			System.exit(1);
+		}
+
+		TestConfig config = TestConfig.getTestConfig();
+		ServiceInterface si;
+		try {
+			si = config.getServiceInterface(args[0]);
+		} catch (RuntimeException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(1);
+			return;
+		}
+		int users = (args.length > 1) ? Integer.parseInt(args[1]) : config
+				.getSimulatedUsers();
+		int jobsPerUser = (args.length > 2) ? Integer.parseInt(args[2])
+				: config.getJobsPerSimulatedUser();
+
+		UserSimulation sim = new UserSimulation(config, args[0], si);
+		System.out.println(sim.run(users, jobsPerUser));
+		System.out.println(LatencyStats.getReport());
+		if (config.isPooledSessions()) {
+			System.out.println("Sessions: " + config.getSessionPool(args[0]));
+		}
+
+		System.exit(0);
+	}
+
+	/**
+	 * Creates an executor that starts a new virtual thread per task, or, if
+	 * the JVM doesn't support virtual threads, a bounded pool of daemon
+	 * threads.
+	 *
+	 * @param maxPlatformThreads
+	 *            the size of the pool if virtual threads are not supported
+	 * @return the executor
+	 */
+	public static ExecutorService newUserExecutor(int maxPlatformThreads) {
+		if (isVirtualThreadsSupported()) {
+			try {
+				return (ExecutorService) Executors.class.getMethod(
+						"newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (Exception e) {
+				myLogger.warn("Can't create virtual thread executor: "
+						+ e.getLocalizedMessage());
+			}
+		}
+		myLogger.warn("No virtual threads, running degraded with at most "
+				+ maxPlatformThreads + " concurrent users.");
+		return Executors.newFixedThreadPool(maxPlatformThreads,
+				new ThreadFactoryBuilder().setNameFormat("user-%d")
+						.setDaemon(true).build());
+	}
+
+	/**
+	 * Whether an executor created by {@link #newUserExecutor(int)} runs its
+	 * tasks on virtual threads. That's not the same as
+	 * {@link #isVirtualThreadsSupported()}, since creating the virtual thread
+	 * executor can still fail.
+	 */
+	public static boolean isVirtualThreadExecutor(ExecutorService executor) {
+		// the platform fallback is always a ThreadPoolExecutor
+		return !(executor instanceof ThreadPoolExecutor);
+	}
+
+	/**
+	 * Whether this JVM can run users on virtual threads.
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private final TestConfig config;
+	private final String backend;
+	private final ServiceInterface si;
+	private final SessionPool pool;
+
+	public UserSimulation(TestConfig config, String backend,
+			ServiceInterface si) {
+		this.config = config;
+		this.backend = backend;
+		this.si = si;
+		this.pool = config.isPooledSessions() ? config
+				.getSessionPool(backend) : null;
+	}
+
+	/**
+	 * Runs the specified number of users concurrently and waits for all of
+	 * them to finish.
+	 *
+	 * @param users
+	 *            the number of concurrent users
+	 * @param jobsPerUser
+	 *            the number of jobs every user has in flight
+	 * @return the results
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the users
+	 */
+	public Result run(int users, final int jobsPerUser)
+			throws InterruptedException {
+
+		ExecutorService executor = newUserExecutor(config
+				.getMaxPlatformUserThreads());
+		final Result result = new Result(users, jobsPerUser,
+				isVirtualThreadExecutor(executor));
+
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		ScheduledExecutorService sampler = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+						.setNameFormat("user-sim-sampler").setDaemon(true)
+						.build());
+		sampler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				result.sample(threads, memory);
+			}
+		}, 0, 1, TimeUnit.SECONDS);
+
+		List<Callable<Object>> sessions = Lists.newArrayList();
+		for (int i = 0; i < users; i++) {
+			final int user = i;
+			sessions.add(new Callable<Object>() {
+				public Object call() {
+					long start = System.currentTimeMillis();
+					if (runUser(user, jobsPerUser, result)) {
+						result.sessionLatency.record(System.currentTimeMillis()
+								- start);
+					}
+					return null;
+				}
+			});
+		}
+
+		long start = System.currentTimeMillis();
+		try {
+			executor.invokeAll(sessions);
+		} finally {
+			result.durationInMs = System.currentTimeMillis() - start;
+			executor.shutdown();
+			sampler.shutdownNow();
+			result.sample(threads, memory);
+		}
+		myLogger.info("Backend " + backend + ": " + result);
+		return result;
+	}
+
+	/**
+	 * Runs one user session.
+	 *
+	 * @return whether the user got a session, i.e. whether the session
+	 *         actually ran
+	 */
+	private boolean runUser(int user, int jobsPerUser, Result result) {
+
+		Session session = null;
+		ServiceInterface si = this.si;
+		if (pool != null) {
+			try {
+				// users hold their session until all their jobs are done
+				session = pool.checkout(config.getMaxTimeoutInSeconds());
+				si = session.getServiceInterface();
+			} catch (Exception e) {
+				result.failedJobs.addAndGet(jobsPerUser);
+				result.failedSessions.incrementAndGet();
+				myLogger.warn("User " + user + " got no session: "
+						+ e.getLocalizedMessage());
+				return false;
+			}
+		}
+
+		List<TimedJob> jobs = Lists.newArrayList();
+		try {
+			for (int i = 0; i < jobsPerUser; i++) {
+				String jobname = config.createJobname("user" + user);
+				try {
+					GrisuJob job = new GrisuJob(si);
+					job.setJobname(jobname);
+					job.setCommandline("echo " + config.getContent());
+					job.setApplication("generic");
+
+					TimedJob timed = new TimedJob(backend, job,
+							StatusPoller.get(si));
+					timed.createJob(config.getFqan());
+					jobs.add(timed);
+					timed.submitJob();
+				} catch (Exception e) {
+					result.failedJobs.incrementAndGet();
+					myLogger.warn("Job " + jobname + " failed: "
+							+ e.getLocalizedMessage());
+				}
+			}
+
+			for (TimedJob timed : jobs) {
+				try {
+					timed.waitForJobToFinish(5);
+					String stdout = timed.getStdOutContent();
+					if (!config.getContent().trim().equals(stdout.trim())) {
+						throw new RuntimeException("Unexpected stdout: "
+								+ stdout);
+					}
+				} catch (Exception e) {
+					result.failedJobs.incrementAndGet();
+					myLogger.warn("Job " + timed.getJob().getJobname()
+							+ " failed: " + e.getLocalizedMessage());
+				}
+			}
+		} finally {
+			for (TimedJob timed : jobs) {
+				config.cleanJob(si, timed.getJob().getJobname());
+			}
+			if (session != null) {
+				pool.release(session);
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,51 @@
+package grisu.frontend.tests.standin;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+/**
+ * Creates grisu dtos for the stand-in.
+ *
+ * The dtos are created reflectively and only the fields that exist on the
+ * dto class of the grisu version in use are populated, so the stand-in
+ * doesn't depend on the constructors of a particular grisu version.
+ */
+class Dtos {
+
+	static <T> T create(Class<T> dtoClass) {
+		try {
+			Constructor<T> c = dtoClass.getDeclaredConstructor();
+			c.setAccessible(true);
+			return c.newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException("Can't create "
+					+ dtoClass.getSimpleName() + " dto: "
+					+ e.getLocalizedMessage(), e);
+		}
+	}
+
+	static void setIfPresent(Object target, String fieldName, Object value) {
+		for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+			try {
+				Field f = c.getDeclaredField(fieldName);
+				if (f.getType().isInstance(value)
+						|| (f.getType().isPrimitive() && (value != null))) {
+					f.setAccessible(true);
+					f.set(target, value);
+				}
+				return;
+			} catch (NoSuchFieldException e) {
+				// try superclass
+			} catch (IllegalArgumentException e) {
+				// primitive of a different type
+				return;
+			} catch (IllegalAccessException e) {
+				return;
+			}
+		}
+	}
+
+	private Dtos() {
+	}
+
+}
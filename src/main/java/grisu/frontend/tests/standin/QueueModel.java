@@ -0,0 +1,291 @@
+package grisu.frontend.tests.standin;
+
+import grisu.frontend.tests.utils.InfoSystemSnapshot;
+import grisu.jcommons.constants.JobSubmissionProperty;
+import grisu.model.info.dto.Queue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * The queues, VOs and applications a {@link StandInBackend} pretends to have.
+ *
+ * The default model mirrors what the integration tests expect from the
+ * testbed: one queue with a max walltime of 10 minutes (and one for long
+ * jobs) that accepts the <code>generic</code>, <code>UnixCommands</code> and
+ * <code>Python</code> applications for the <code>/none</code>,
+ * <code>/test/nesi</code> and <code>/test/demo</code> VOs. Of those,
+ * only <code>UnixCommands</code> 5.97 and <code>Python</code> 2.7 are
+ * installed, so jobs that ask for other versions are rejected like on the
+ * testbed.
+ */
+public class QueueModel {
+
+	/**
+	 * One queue of the model.
+	 */
+	public static class QueueSpec {
+
+		private final String name;
+		private final String host;
+		private final int maxWalltimeInSeconds;
+		private final Set<String> fqans;
+		private final Set<String> applications;
+		private final Map<String, Set<String>> versions = Maps.newHashMap();
+
+		public QueueSpec(String name, String host, int maxWalltimeInSeconds,
+				Set<String> fqans, Set<String> applications) {
+			this.name = name;
+			this.host = host;
+			this.maxWalltimeInSeconds = maxWalltimeInSeconds;
+			this.fqans = fqans;
+			this.applications = applications;
+		}
+
+		public Set<String> getApplications() {
+			return applications;
+		}
+
+		public Set<String> getFqans() {
+			return fqans;
+		}
+
+		/**
+		 * The versions of an application this queue has.
+		 *
+		 * @return the versions, or an empty set if the versions of the
+		 *         application are not modelled (then every version matches)
+		 */
+		public Set<String> getVersions(String application) {
+			Set<String> v = versions.get(application);
+			return (v == null) ? Collections.<String> emptySet() : v;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public int getMaxWalltimeInSeconds() {
+			return maxWalltimeInSeconds;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Whether a job with the specified properties can run on this queue.
+		 *
+		 * @param application
+		 *            the application, or null for any
+		 * @param walltimeInSeconds
+		 *            the walltime, or a value &lt;= 0 for any
+		 * @param fqan
+		 *            the VO the job is submitted with
+		 */
+		public boolean matches(String application, int walltimeInSeconds,
+				String fqan) {
+			return matches(application, null, walltimeInSeconds, fqan);
+		}
+
+		/**
+		 * Whether a job with the specified properties can run on this queue.
+		 *
+		 * @param application
+		 *            the application, or null for any
+		 * @param version
+		 *            the version of the application, or null for any
+		 * @param walltimeInSeconds
+		 *            the walltime, or a value &lt;= 0 for any
+		 * @param fqan
+		 *            the VO the job is submitted with
+		 */
+		public boolean matches(String application, String version,
+				int walltimeInSeconds, String fqan) {
+			if (!fqans.contains(fqan)) {
+				return false;
+			}
+			if (StringUtils.isNotBlank(application)
+					&& !applications.contains(application)) {
+				return false;
+			}
+			if (StringUtils.isNotBlank(application)
+					&& StringUtils.isNotBlank(version)
+					&& !ANY_VERSION.equals(version)
+					&& !getVersions(application).isEmpty()
+					&& !getVersions(application).contains(version)) {
+				return false;
+			}
+			return walltimeInSeconds <= maxWalltimeInSeconds;
+		}
+
+		/**
+		 * Adds versions of an application to this queue. Applications
+		 * without versions accept any version.
+		 *
+		 * @return this queue
+		 */
+		public QueueSpec addVersions(String application, String... v) {
+			if (!versions.containsKey(application)) {
+				versions.put(application, Sets.<String> newTreeSet());
+			}
+			Collections.addAll(versions.get(application), v);
+			return this;
+		}
+
+		/**
+		 * The submission location string, in the same format the tests use
+		 * (<code>queue:host</code>).
+		 */
+		@Override
+		public String toString() {
+			return name + ":" + host;
+		}
+	}
+
+
+	/**
+	 * The version grisu uses when a job doesn't ask for a specific one.
+	 */
+	public static final String ANY_VERSION = "Any";
+
+	public static QueueModel createDefault() {
+		Set<String> fqans = Sets.newHashSet("/none", "/test/nesi",
+				"/test/demo");
+		Set<String> apps = Sets.newHashSet("generic", "UnixCommands",
+				"Python");
+		QueueModel model = new QueueModel();
+		model.addQueue(new QueueSpec("test1", "globus.test.nesi.org.nz",
+				600, fqans, apps).addVersions("UnixCommands", "5.97")
+				.addVersions("Python", "2.7"));
+		model.addQueue(new QueueSpec("long", "globus.test.nesi.org.nz",
+				7 * 24 * 3600, fqans, apps).addVersions("UnixCommands",
+				"5.97").addVersions("Python", "2.7"));
+		return model;
+	}
+
+	/**
+	 * Creates a model with the queues of an info-system snapshot.
+	 *
+	 * A queue accepts all VOs, applications and versions it was captured for,
+	 * with the largest walltime limit captured for it.
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @return the model
+	 */
+	public static QueueModel fromSnapshot(InfoSystemSnapshot snapshot) {
+		Map<String, Set<String>> fqans = Maps.newTreeMap();
+		Map<String, Set<String>> apps = Maps.newTreeMap();
+		Map<String, Integer> walltimes = Maps.newTreeMap();
+		Map<String, Map<String, Set<String>>> versions = Maps.newTreeMap();
+		for (InfoSystemSnapshot.Entry e : snapshot.getEntries()) {
+			String q = e.getQueue();
+			if (!fqans.containsKey(q)) {
+				fqans.put(q, Sets.<String> newHashSet());
+				apps.put(q, Sets.<String> newHashSet());
+				walltimes.put(q, 0);
+				versions.put(q, Maps.<String, Set<String>> newHashMap());
+			}
+			fqans.get(q).add(e.getFqan());
+			if (!InfoSystemSnapshot.ANY.equals(e.getApplication())) {
+				apps.get(q).add(e.getApplication());
+				if (!InfoSystemSnapshot.ANY.equals(e.getVersion())) {
+					if (!versions.get(q).containsKey(e.getApplication())) {
+						versions.get(q).put(e.getApplication(),
+								Sets.<String> newHashSet());
+					}
+					versions.get(q).get(e.getApplication()).add(e.getVersion());
+				}
+			}
+			walltimes.put(q,
+					Math.max(walltimes.get(q), e.getMaxWalltimeInSeconds()));
+		}
+
+		QueueModel model = new QueueModel();
+		for (String q : fqans.keySet()) {
+			QueueSpec spec = new QueueSpec(StringUtils.substringBefore(q,
+					":"), StringUtils.substringAfter(q, ":"), walltimes.get(q),
+					fqans.get(q), apps.get(q));
+			for (String app : versions.get(q).keySet()) {
+				Set<String> v = versions.get(q).get(app);
+				spec.addVersions(app, v.toArray(new String[v.size()]));
+			}
+			model.addQueue(spec);
+		}
+		return model;
+	}
+
+	/**
+	 * Creates a {@link Queue} dto for the specified spec.
+	 */
+	public static Queue toQueue(QueueSpec spec) {
+		Queue q = Dtos.create(Queue.class);
+		Dtos.setIfPresent(q, "name", spec.getName());
+		Dtos.setIfPresent(q, "host", spec.getHost());
+		Dtos.setIfPresent(q, "walltimeInMinutes",
+				spec.getMaxWalltimeInSeconds() / 60);
+		return q;
+	}
+
+	private final List<QueueSpec> queues = Lists.newArrayList();
+
+	public void addQueue(QueueSpec queue) {
+		queues.add(queue);
+	}
+
+	/**
+	 * Finds all queues that match the job properties.
+	 *
+	 * @param properties
+	 *            the job properties, keyed by {@link JobSubmissionProperty}
+	 *            (as in GrisuJob.getStringJobSubmissionPropertyMap())
+	 * @param fqan
+	 *            the VO
+	 * @return the matching queues
+	 */
+	public List<QueueSpec> findQueues(Map<String, String> properties,
+			String fqan) {
+		String application = properties
+				.get(JobSubmissionProperty.APPLICATIONNAME.toString());
+		String version = properties
+				.get(JobSubmissionProperty.APPLICATIONVERSION.toString());
+		String minutes = properties
+				.get(JobSubmissionProperty.WALLTIME_IN_MINUTES.toString());
+		int walltime = -1;
+		if (StringUtils.isNotBlank(minutes)) {
+			walltime = Integer.parseInt(minutes.trim()) * 60;
+		}
+		List<QueueSpec> result = Lists.newArrayList();
+		for (QueueSpec q : queues) {
+			if (q.matches(application, version, walltime, fqan)) {
+				result.add(q);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * All VOs that have access to at least one queue.
+	 */
+	public Set<String> getFqans() {
+		Set<String> result = Sets.newTreeSet();
+		for (QueueSpec q : queues) {
+			result.addAll(q.getFqans());
+		}
+		return result;
+	}
+
+	public List<QueueSpec> getQueues() {
+		return Collections.unmodifiableList(queues);
+	}
+
+}
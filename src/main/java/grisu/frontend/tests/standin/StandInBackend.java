@@ -0,0 +1,781 @@
+package grisu.frontend.tests.standin;
+
+import grisu.control.JobConstants;
+import grisu.control.ServiceInterface;
+import grisu.control.exceptions.JobPropertiesException;
+import grisu.control.exceptions.NoSuchJobException;
+import grisu.control.exceptions.RemoteFileSystemException;
+import grisu.frontend.tests.standin.QueueModel.QueueSpec;
+import grisu.frontend.tests.utils.InfoSystemSnapshot;
+import grisu.jcommons.constants.Constants;
+import grisu.jcommons.constants.JobSubmissionProperty;
+import grisu.model.dto.DtoJob;
+import grisu.model.dto.DtoJobs;
+import grisu.model.dto.GridFile;
+import grisu.model.info.dto.DtoProperties;
+import grisu.model.info.dto.DtoStringList;
+import grisu.model.info.dto.Queue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Primitives;
+
+/**
+ * An in-process stand-in for a grisu backend, for offline runs and to measure
+ * client-side overhead without middleware latency.
+ *
+ * Use it by adding {@link #NAME} to the backends in the test config. No
+ * credential or network is needed: jobs run as local processes (see
+ * {@link StandInJob}), job directories live below
+ * {@link #STAND_IN_BASE_DIR}, and the info system is answered from a
+ * {@link QueueModel}, or from an {@link InfoSystemSnapshot} if the stand-in
+ * was created from one, so it returns the queues the real backend returned
+ * per VO, application, version and walltime. Jobs that ask for an
+ * application, version or walltime no queue offers are rejected with a
+ * {@link JobPropertiesException}, like a real backend does.
+ *
+ * The file calls the FileManager uses (upload, download, copy, delete,
+ * listing and file properties) work on the local filesystem:
+ * <code>file:</code> urls are used as they are, urls of every other scheme
+ * are mapped to a directory per host below {@link #getRemoteDirectory()}, so
+ * remote input files can be staged like on a real backend. User properties
+ * are kept in memory.
+ *
+ * The {@link ServiceInterface} is a dynamic proxy that forwards every call to
+ * the method of this class with the same name and compatible parameters.
+ * The methods are matched once per JVM. The {@link #CLIENT_METHODS} (what
+ * GrisuJob, the FileManager and the tests call) must all be matched, or
+ * creating a stand-in fails with the list of those that aren't, e.g. if the
+ * grisu version in use changed a signature. Other calls fail with an
+ * {@link UnsupportedOperationException} that names the method.
+ */
+public class StandInBackend implements InvocationHandler {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(StandInBackend.class);
+
+	public static final String NAME = "stand-in";
+
+	public static final File STAND_IN_BASE_DIR = new File(
+			System.getProperty("java.io.tmpdir"), "grisu-stand-in");
+
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	/**
+	 * The ServiceInterface methods the client reaches, which the stand-in
+	 * has to implement.
+	 */
+	public static final Set<String> CLIENT_METHODS = ImmutableSet.of("cp",
+			"createJob", "deleteFile", "deleteFiles", "download", "fileExists",
+			"findQueues", "getAllJobnames", "getCurrentJobs", "getDN",
+			"getFileSize", "getFqans", "getInterfaceVersion",
+			"getJobProperty", "getJobStatus", "getUserProperties",
+			"getUserProperty",
+			"isFolder", "kill", "killJobs", "lastModified", "logout", "ls",
+			"setUserProperty", "submitJob", "upload");
+
+	// ServiceInterface method -> implementing method of this class
+	private static final Map<Method, Method> dispatch = Maps.newHashMap();
+	private static final List<String> missing = Lists.newArrayList();
+
+	static {
+		for (Method method : ServiceInterface.class.getMethods()) {
+			Method impl = findImplementation(method);
+			if (impl != null) {
+				dispatch.put(method, impl);
+			} else if (CLIENT_METHODS.contains(method.getName())) {
+				missing.add(method.toString());
+			}
+		}
+	}
+
+	public static ServiceInterface create(QueueModel queueModel) {
+		return create(queueModel, null);
+	}
+
+	/**
+	 * Creates a stand-in that answers the info system from a snapshot.
+	 *
+	 * @param queueModel
+	 *            the queues, usually {@link QueueModel#fromSnapshot}
+	 * @param snapshot
+	 *            the snapshot queues are looked up in, or null to use the
+	 *            model only
+	 */
+	public static ServiceInterface create(QueueModel queueModel,
+			InfoSystemSnapshot snapshot) {
+		if (!missing.isEmpty()) {
+			throw new RuntimeException(
+					"Stand-in backend doesn't implement the client methods: "
+							+ StringUtils.join(missing, ", "));
+		}
+		File dir = new File(STAND_IN_BASE_DIR, "backend-"
+				+ instances.incrementAndGet());
+		return (ServiceInterface) Proxy.newProxyInstance(
+				StandInBackend.class.getClassLoader(),
+				new Class<?>[] { ServiceInterface.class }, new StandInBackend(
+						queueModel, snapshot, dir));
+	}
+
+	private static Method findImplementation(Method method) {
+		Class<?>[] types = method.getParameterTypes();
+		for (Method m : StandInBackend.class.getMethods()) {
+			if (!m.getName().equals(method.getName())
+					|| (m.getParameterTypes().length != types.length)) {
+				continue;
+			}
+			boolean compatible = true;
+			for (int i = 0; i < types.length; i++) {
+				if (!Primitives.wrap(m.getParameterTypes()[i])
+						.isAssignableFrom(Primitives.wrap(types[i]))) {
+					// another overload may still fit
+					compatible = false;
+					break;
+				}
+			}
+			if (compatible) {
+				return m;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the stand-in behind a serviceinterface.
+	 *
+	 * @param si
+	 *            the serviceinterface
+	 * @return the stand-in or null if the serviceinterface is not a stand-in
+	 */
+	public static StandInBackend get(ServiceInterface si) {
+		if (Proxy.isProxyClass(si.getClass())) {
+			InvocationHandler h = Proxy.getInvocationHandler(si);
+			if (h instanceof StandInBackend) {
+				return (StandInBackend) h;
+			}
+		}
+		return null;
+	}
+
+	private static List<Element> getElements(Document doc, String localName) {
+		List<Element> result = Lists.newArrayList();
+		NodeList nodes = doc.getElementsByTagNameNS("*", localName);
+		for (int i = 0; i < nodes.getLength(); i++) {
+			result.add((Element) nodes.item(i));
+		}
+		return result;
+	}
+
+	private static int getNumber(Document doc, String localName) {
+		String text = getText(doc, localName);
+		if (StringUtils.isBlank(text)) {
+			return -1;
+		}
+		try {
+			return (int) Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String getText(Document doc, String localName) {
+		List<Element> elements = getElements(doc, localName);
+		if (elements.isEmpty()) {
+			return null;
+		}
+		return elements.get(0).getTextContent().trim();
+	}
+
+	private final QueueModel queueModel;
+	private final InfoSystemSnapshot snapshot;
+	private final File baseDirectory;
+
+	private final Map<String, StandInJob> jobs = Maps.newConcurrentMap();
+	private final Map<String, String> userProperties = Maps
+			.newConcurrentMap();
+
+	private volatile long outageUntil = 0;
+
+	public StandInBackend(QueueModel queueModel, File baseDirectory) {
+		this(queueModel, null, baseDirectory);
+	}
+
+	public StandInBackend(QueueModel queueModel, InfoSystemSnapshot snapshot,
+			File baseDirectory) {
+		this.queueModel = queueModel;
+		this.snapshot = snapshot;
+		this.baseDirectory = baseDirectory;
+	}
+
+	/**
+	 * Copies files. The target is a directory if more than one source is
+	 * copied, or if it already is one.
+	 *
+	 * @return the url of the target
+	 */
+	public String cp(DtoStringList sources, String target, boolean overwrite,
+			boolean waitForFileTransferToFinish)
+			throws RemoteFileSystemException {
+		File targetFile = toFile(target);
+		List<String> urls = sources.getStringList();
+		boolean toDirectory = targetFile.isDirectory() || (urls.size() > 1);
+		for (String url : urls) {
+			File source = getExistingFile(url);
+			File t = toDirectory ? new File(targetFile, source.getName())
+					: targetFile;
+			if (t.exists() && !overwrite) {
+				throw new RemoteFileSystemException("Target exists: " + target);
+			}
+			try {
+				if (source.isDirectory()) {
+					FileUtils.copyDirectory(source, t);
+				} else {
+					FileUtils.copyFile(source, t);
+				}
+			} catch (IOException e) {
+				throw new RemoteFileSystemException("Can't copy " + url
+						+ " to " + target + ": " + e.getLocalizedMessage());
+			}
+		}
+		return target;
+	}
+
+	/**
+	 * Creates a job from a JSDL document.
+	 *
+	 * Only the job name, application and version, walltime (total cpu time
+	 * divided by the number of cpus), submission location (candidate host),
+	 * executable with arguments, environment and staging sources are read.
+	 *
+	 * @throws JobPropertiesException
+	 *             if no queue of the model accepts the job
+	 */
+	public String createJob(String jsdl, String fqan, String jobnameCreationMethod)
+			throws Exception {
+
+		DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
+		f.setNamespaceAware(true);
+		Document doc = f.newDocumentBuilder().parse(
+				new ByteArrayInputStream(jsdl.getBytes("UTF-8")));
+
+		String jobname = getText(doc, "JobName");
+		if (StringUtils.isBlank(jobname)) {
+			throw new JobPropertiesException("No jobname in job description.");
+		}
+		if (jobs.containsKey(jobname)) {
+			throw new JobPropertiesException("Job " + jobname
+					+ " already exists.");
+		}
+
+		String app = getText(doc, "ApplicationName");
+		int walltime = getNumber(doc, "TotalCPUTime");
+		if (walltime > 0) {
+			walltime = walltime / Math.max(1, getNumber(doc, "TotalCPUCount"));
+		}
+		checkQueues(app, getText(doc, "ApplicationVersion"), walltime,
+				getText(doc, "HostName"), fqan);
+
+		StandInJob job = new StandInJob(jobname, fqan, new File(baseDirectory,
+				jobname));
+
+		if (StringUtils.isNotBlank(app)) {
+			job.setApplication(app);
+		}
+
+		List<String> commandline = Lists.newArrayList();
+		commandline.add(getText(doc, "Executable"));
+		for (Element arg : getElements(doc, "Argument")) {
+			commandline.add(arg.getTextContent().trim());
+		}
+		job.setCommandline(StringUtils.join(commandline, " "));
+
+		for (Element env : getElements(doc, "Environment")) {
+			job.addEnvironmentVariable(env.getAttribute("name"), env
+					.getTextContent().trim());
+		}
+
+		for (Element source : getElements(doc, "Source")) {
+			for (Node n = source.getFirstChild(); n != null; n = n
+					.getNextSibling()) {
+				if ("URI".equals(n.getLocalName())) {
+					job.addInputFile(toFile(n.getTextContent().trim())
+							.getPath());
+				}
+			}
+		}
+
+		// so local input files can be uploaded before the job is submitted
+		job.getJobDirectory().mkdirs();
+		jobs.put(jobname, job);
+		return jobname;
+	}
+
+	public void deleteFile(String file) throws RemoteFileSystemException {
+		if (!FileUtils.deleteQuietly(getExistingFile(file))) {
+			throw new RemoteFileSystemException("Can't delete " + file);
+		}
+	}
+
+	public void deleteFiles(DtoStringList files)
+			throws RemoteFileSystemException {
+		for (String file : files.getStringList()) {
+			FileUtils.deleteQuietly(toFile(file));
+		}
+	}
+
+	public DataHandler download(String filename)
+			throws RemoteFileSystemException {
+		File file = getExistingFile(filename);
+		if (file.isDirectory()) {
+			throw new RemoteFileSystemException("Can't download directory "
+					+ filename);
+		}
+		return new DataHandler(new FileDataSource(file));
+	}
+
+	public boolean fileExists(String file) {
+		return toFile(file).exists();
+	}
+
+	/**
+	 * Checks that at least one queue accepts a job. With a snapshot, the
+	 * queues of the snapshot decide, the model only names the reason.
+	 *
+	 * @param submissionLocation
+	 *            the submission location (<code>queue:host</code>, optionally
+	 *            followed by <code>#type</code>), or null for any queue
+	 * @throws JobPropertiesException
+	 *             naming the first property no queue accepts
+	 */
+	private void checkQueues(String application, String version,
+			int walltimeInSeconds, String submissionLocation, String fqan)
+			throws JobPropertiesException {
+
+		if (snapshot != null) {
+			List<String> accepting = findSnapshotQueues(application, version,
+					walltimeInSeconds, fqan);
+			if (StringUtils.isBlank(submissionLocation) ? !accepting.isEmpty()
+					: accepting.contains(StringUtils.substringBefore(
+							submissionLocation, "#"))) {
+				return;
+			}
+		}
+
+		List<QueueSpec> queues = Lists.newArrayList();
+		for (QueueSpec q : queueModel.getQueues()) {
+			if (StringUtils.isBlank(submissionLocation)
+					|| q.toString().equals(
+							StringUtils.substringBefore(submissionLocation,
+									"#"))) {
+				queues.add(q);
+			}
+		}
+		if (queues.isEmpty()) {
+			throw new JobPropertiesException("Submission location "
+					+ submissionLocation + " not available.");
+		}
+
+		boolean applicationOk = false;
+		boolean versionOk = false;
+		for (QueueSpec q : queues) {
+			if (q.matches(application, null, -1, fqan)) {
+				applicationOk = true;
+				if (q.matches(application, version, -1, fqan)) {
+					versionOk = true;
+					if (q.matches(application, version, walltimeInSeconds,
+							fqan) && (snapshot == null)) {
+						return;
+					}
+				}
+			}
+		}
+		if (!applicationOk) {
+			throw new JobPropertiesException("Application " + application
+					+ " not available for " + fqan + ".");
+		}
+		if (!versionOk) {
+			throw new JobPropertiesException("Version " + version + " of "
+					+ application + " not available for " + fqan + ".");
+		}
+		if (snapshot != null) {
+			throw new JobPropertiesException("No queue accepts "
+					+ application + " " + version + " with a walltime of "
+					+ walltimeInSeconds + " seconds for " + fqan + ".");
+		}
+		throw new JobPropertiesException("Walltime of " + walltimeInSeconds
+				+ " seconds exceeds the limit of every queue.");
+	}
+
+	public List<Queue> findQueues(DtoProperties properties, String fqan) {
+		List<Queue> result = Lists.newArrayList();
+		if (snapshot != null) {
+			Map<String, String> props = properties.propertiesAsMap();
+			String minutes = props.get(JobSubmissionProperty.WALLTIME_IN_MINUTES
+					.toString());
+			List<String> locations = findSnapshotQueues(
+					props.get(JobSubmissionProperty.APPLICATIONNAME.toString()),
+					props.get(JobSubmissionProperty.APPLICATIONVERSION
+							.toString()),
+					StringUtils.isBlank(minutes) ? -1 : Integer.parseInt(minutes
+							.trim()) * 60, fqan);
+			for (String location : locations) {
+				result.add(toQueue(location));
+			}
+			return result;
+		}
+		for (QueueSpec spec : queueModel.findQueues(
+				properties.propertiesAsMap(), fqan)) {
+			result.add(QueueModel.toQueue(spec));
+		}
+		return result;
+	}
+
+	private List<String> findSnapshotQueues(String application,
+			String version, int walltimeInSeconds, String fqan) {
+		if (QueueModel.ANY_VERSION.equals(version)) {
+			version = null;
+		}
+		return snapshot.findQueues(fqan, application, version,
+				walltimeInSeconds);
+	}
+
+	public DtoStringList getAllJobnames(String application) {
+		Set<String> names = Sets.newTreeSet();
+		for (StandInJob job : jobs.values()) {
+			if (StringUtils.isBlank(application)
+					|| application.equals(job.getApplication())) {
+				names.add(job.getJobname());
+			}
+		}
+		return DtoStringList.fromStringColletion(names);
+	}
+
+	/**
+	 * The status of all jobs, with the jobname and application as
+	 * properties.
+	 */
+	public DtoJobs getCurrentJobs(boolean refresh) {
+		DtoJobs result = new DtoJobs();
+		for (StandInJob job : jobs.values()) {
+			Map<String, String> props = Maps.newHashMap();
+			props.put(Constants.JOBNAME_KEY, job.getJobname());
+			props.put(Constants.APPLICATIONNAME_KEY, job.getApplication());
+			result.addJob(DtoJob.createJob(
+					getJobStatus(job.getJobname()), props,
+					Sets.<String> newHashSet(),
+					Maps.<Date, String> newHashMap(), false));
+		}
+		return result;
+	}
+
+	public File getBaseDirectory() {
+		return baseDirectory;
+	}
+
+	public DtoStringList getFqans() {
+		return DtoStringList.fromStringColletion(queueModel.getFqans());
+	}
+
+	public String getDN() {
+		return "/O=Grisu/CN=" + NAME;
+	}
+
+	private File getExistingFile(String url) throws RemoteFileSystemException {
+		File file = toFile(url);
+		if (!file.exists()) {
+			throw new RemoteFileSystemException("No such file: " + url);
+		}
+		return file;
+	}
+
+	public long getFileSize(String file) throws RemoteFileSystemException {
+		return getExistingFile(file).length();
+	}
+
+	public String getInterfaceVersion() {
+		return NAME;
+	}
+
+	/**
+	 * The properties the FileManager and GrisuJob look up: the job
+	 * directory, application, VO and commandline.
+	 *
+	 * @return the value, or null for other properties
+	 */
+	public String getJobProperty(String jobname, String key)
+			throws NoSuchJobException {
+		StandInJob job = getStandInJob(jobname);
+		if (Constants.JOBDIRECTORY_KEY.equals(key)) {
+			return toUrl(job.getJobDirectory());
+		} else if (Constants.APPLICATIONNAME_KEY.equals(key)) {
+			return job.getApplication();
+		} else if (Constants.FQAN_KEY.equals(key)) {
+			return job.getFqan();
+		} else if (Constants.COMMANDLINE_KEY.equals(key)) {
+			return job.getCommandline();
+		}
+		return null;
+	}
+
+	public int getJobStatus(String jobname) {
+		StandInJob job = jobs.get(jobname);
+		if ((job == null) || (System.currentTimeMillis() < outageUntil)) {
+			return JobConstants.UNDEFINED;
+		}
+		return job.getStatus();
+	}
+
+	public QueueModel getQueueModel() {
+		return queueModel;
+	}
+
+	/**
+	 * The snapshot the info system is answered from, or null.
+	 */
+	public InfoSystemSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * The directory urls that are not <code>file:</code> urls are mapped to.
+	 */
+	public File getRemoteDirectory() {
+		return new File(baseDirectory, "remote");
+	}
+
+	public StandInJob getStandInJob(String jobname) throws NoSuchJobException {
+		StandInJob job = jobs.get(jobname);
+		if (job == null) {
+			throw new NoSuchJobException("No such job: " + jobname);
+		}
+		return job;
+	}
+
+	public DtoProperties getUserProperties() {
+		return DtoProperties.createProperties(Maps
+				.newHashMap(userProperties));
+	}
+
+	public String getUserProperty(String key) {
+		return userProperties.get(key);
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+
+		if (method.getDeclaringClass() == Object.class) {
+			if ("equals".equals(method.getName())) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(method.getName())) {
+				return System.identityHashCode(proxy);
+			}
+			return NAME + "@" + baseDirectory;
+		}
+
+		Method impl = dispatch.get(method);
+		if (impl == null) {
+			throw new UnsupportedOperationException(
+					"Stand-in backend doesn't support: " + method);
+		}
+		try {
+			return impl.invoke(this, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	public boolean isFolder(String file) {
+		return toFile(file).isDirectory();
+	}
+
+	public void kill(String jobname, boolean clean) throws NoSuchJobException {
+		StandInJob job = getStandInJob(jobname);
+		job.kill();
+		if (clean) {
+			jobs.remove(jobname);
+			job.delete();
+		}
+	}
+
+	public void killJobs(DtoStringList jobnames, boolean clean) {
+		for (String jobname : jobnames.getStringList()) {
+			StandInJob job = jobs.get(jobname);
+			if (job != null) {
+				job.kill();
+				if (clean) {
+					jobs.remove(jobname);
+					job.delete();
+				}
+			}
+		}
+	}
+
+	public long lastModified(String url) throws RemoteFileSystemException {
+		return getExistingFile(url).lastModified();
+	}
+
+	/**
+	 * Lists a file or directory.
+	 *
+	 * @param recursionLevel
+	 *            how many levels of children to list, a negative value
+	 *            lists all
+	 */
+	public GridFile ls(String directory, int recursionLevel)
+			throws RemoteFileSystemException {
+		return toGridFile(getExistingFile(directory), recursionLevel);
+	}
+
+	public String logout() {
+		for (String jobname : Lists.newArrayList(jobs.keySet())) {
+			jobs.get(jobname).kill();
+		}
+		FileUtils.deleteQuietly(baseDirectory);
+		return "Logged out.";
+	}
+
+	/**
+	 * Simulates a restart of the job managers, like
+	 * <code>kill_job_managers.sh</code> does on a real backend: the status of
+	 * every job is unknown ({@link JobConstants#UNDEFINED}) for the duration
+	 * of the outage. Running jobs are not affected.
+	 *
+	 * @param outageInMs
+	 *            how long the job managers are gone
+	 */
+	public void restartJobManagers(long outageInMs) {
+		myLogger.info("Simulating job manager restart, status unknown for "
+				+ outageInMs + " ms");
+		outageUntil = System.currentTimeMillis() + outageInMs;
+	}
+
+	public void setUserProperty(String key, String value) {
+		if (value == null) {
+			userProperties.remove(key);
+		} else {
+			userProperties.put(key, value);
+		}
+	}
+
+	public void submitJob(String jobname) throws NoSuchJobException {
+		getStandInJob(jobname).start();
+	}
+
+	/**
+	 * The queue dto for a submission location of the snapshot, with the
+	 * walltime limit of the model.
+	 */
+	private Queue toQueue(String submissionLocation) {
+		for (QueueSpec spec : queueModel.getQueues()) {
+			if (spec.toString().equals(submissionLocation)) {
+				return QueueModel.toQueue(spec);
+			}
+		}
+		return QueueModel.toQueue(new QueueSpec(StringUtils.substringBefore(
+				submissionLocation, ":"), StringUtils.substringAfter(
+				submissionLocation, ":"),
+				InfoSystemSnapshot.MAX_WALLTIME_IN_SECONDS,
+				Sets.<String> newHashSet(), Sets.<String> newHashSet()));
+	}
+
+	private File toFile(String url) {
+		URI uri = URI.create(url);
+		if (uri.getScheme() == null) {
+			return new File(url);
+		}
+		if ("file".equals(uri.getScheme())) {
+			return new File(uri);
+		}
+		return new File(new File(getRemoteDirectory(), uri.getHost()),
+				uri.getPath());
+	}
+
+	private GridFile toGridFile(File file, int recursionLevel) {
+		GridFile f = Dtos.create(GridFile.class);
+		Dtos.setIfPresent(f, "url", toUrl(file));
+		Dtos.setIfPresent(f, "name", file.getName());
+		Dtos.setIfPresent(f, "isFolder", file.isDirectory());
+		Dtos.setIfPresent(f, "size", file.length());
+		Dtos.setIfPresent(f, "lastModified", file.lastModified());
+		if (file.isDirectory() && (recursionLevel != 0)) {
+			Set<GridFile> children = Sets.newLinkedHashSet();
+			File[] files = file.listFiles();
+			for (File child : (files == null) ? new File[0] : files) {
+				children.add(toGridFile(child, recursionLevel - 1));
+			}
+			Dtos.setIfPresent(f, "children", children);
+		}
+		return f;
+	}
+
+	private String toUrl(File file) {
+		File remote = getRemoteDirectory().getAbsoluteFile();
+		String path = file.getAbsolutePath();
+		if (path.startsWith(remote.getPath() + File.separator)) {
+			// map back to the url it came from
+			String rest = path.substring(remote.getPath().length() + 1);
+			return "gsiftp://" + rest.replace(File.separatorChar, '/');
+		}
+		return file.toURI().toString();
+	}
+
+	/**
+	 * Uploads a file.
+	 *
+	 * @param targetFilename
+	 *            the target file, or an existing directory to upload into
+	 * @return the url of the uploaded file
+	 */
+	public String upload(DataHandler source, String targetFilename)
+			throws RemoteFileSystemException {
+		File target = toFile(targetFilename);
+		if (target.isDirectory()) {
+			target = new File(target, source.getName());
+		}
+		target.getParentFile().mkdirs();
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(target);
+			source.writeTo(out);
+		} catch (IOException e) {
+			throw new RemoteFileSystemException("Can't upload to "
+					+ targetFilename + ": " + e.getLocalizedMessage());
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		return toUrl(target);
+	}
+
+}
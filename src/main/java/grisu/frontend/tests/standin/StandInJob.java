@@ -0,0 +1,266 @@
+package grisu.frontend.tests.standin;
+
+import grisu.control.JobConstants;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A job of the {@link StandInBackend}, run as a local process in its own
+ * directory.
+ *
+ * stdout and stderr are written to <code>stdout.txt</code> and
+ * <code>stderr.txt</code> in the job directory.
+ *
+ * Killing a job sends SIGTERM to the shell and to every process it started
+ * (on Java 9+, older JVMs can only signal the shell), so scripts that trap
+ * TERM while a foreground command runs, like <code>kill_me.sh</code>, see the
+ * signal right away. The job is reported as killed from then on, while the
+ * process and its output finish in the background.
+ */
+public class StandInJob {
+
+	public static final String STDOUT = "stdout.txt";
+	public static final String STDERR = "stderr.txt";
+
+	/**
+	 * How long after the process exited the job is still reported active
+	 * while its output is written, in ms. Processes the job left running in
+	 * the background keep the output open, so this is bounded.
+	 */
+	public static final long OUTPUT_GRACE_IN_MS = 5000;
+
+	/**
+	 * Sends SIGTERM to all descendants of a process (using ProcessHandle
+	 * reflectively, it doesn't exist before Java 9) and to the process.
+	 */
+	private static void destroyTree(Process process) {
+		try {
+			Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+			Object handle = Process.class.getMethod("toHandle").invoke(process);
+			Object descendants = handleClass.getMethod("descendants").invoke(
+					handle);
+			Object[] children = (Object[]) Class
+					.forName("java.util.stream.Stream").getMethod("toArray")
+					.invoke(descendants);
+			for (Object child : children) {
+				handleClass.getMethod("destroy").invoke(child);
+			}
+		} catch (Exception e) {
+			// no ProcessHandle, only the shell gets the signal
+		}
+		process.destroy();
+	}
+
+	private static Thread pump(final InputStream in, final File target) {
+		Thread t = new Thread("stand-in-pump-" + target.getName()) {
+			@Override
+			public void run() {
+				OutputStream out = null;
+				try {
+					out = new FileOutputStream(target);
+					IOUtils.copy(in, out);
+				} catch (IOException e) {
+					// process went away, nothing to do
+				} finally {
+					IOUtils.closeQuietly(out);
+					IOUtils.closeQuietly(in);
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	private final String jobname;
+	private final String fqan;
+	private final File jobDirectory;
+
+	private String application = "generic";
+	private String commandline;
+	private final Map<String, String> environment = Maps.newLinkedHashMap();
+	private final List<String> inputFiles = Lists.newArrayList();
+
+	private Process process = null;
+	private final List<Thread> pumps = Lists.newArrayList();
+	private long exited = -1;
+	private volatile boolean killed = false;
+	private volatile boolean failed = false;
+
+	public StandInJob(String jobname, String fqan, File jobDirectory) {
+		this.jobname = jobname;
+		this.fqan = fqan;
+		this.jobDirectory = jobDirectory;
+	}
+
+	public void addEnvironmentVariable(String key, String value) {
+		environment.put(key, value);
+	}
+
+	public void addInputFile(String url) {
+		inputFiles.add(url);
+	}
+
+	public void delete() {
+		FileUtils.deleteQuietly(jobDirectory);
+	}
+
+	public String getApplication() {
+		return application;
+	}
+
+	public String getCommandline() {
+		return commandline;
+	}
+
+	public String getFqan() {
+		return fqan;
+	}
+
+	public File getJobDirectory() {
+		return jobDirectory;
+	}
+
+	public String getJobname() {
+		return jobname;
+	}
+
+	/**
+	 * The status of the job, as one of the {@link JobConstants} values.
+	 *
+	 * A finished job stays active until its output is written, for at most
+	 * {@link #OUTPUT_GRACE_IN_MS}.
+	 */
+	public int getStatus() {
+		Process p;
+		List<Thread> outputPumps;
+		synchronized (this) {
+			if (failed) {
+				return JobConstants.FAILED;
+			}
+			if (process == null) {
+				return JobConstants.JOB_CREATED;
+			}
+			if (killed) {
+				return JobConstants.KILLED;
+			}
+			p = process;
+			outputPumps = Lists.newArrayList(pumps);
+		}
+		int rc;
+		try {
+			rc = p.exitValue();
+		} catch (IllegalThreadStateException e) {
+			return JobConstants.ACTIVE;
+		}
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			if (exited < 0) {
+				exited = now;
+			}
+			if (killed) {
+				return JobConstants.KILLED;
+			}
+			for (Thread pump : outputPumps) {
+				if (pump.isAlive() && ((now - exited) < OUTPUT_GRACE_IN_MS)) {
+					return JobConstants.ACTIVE;
+				}
+			}
+		}
+		return (rc == 0) ? JobConstants.DONE : JobConstants.FAILED;
+	}
+
+	public File getStdErrFile() {
+		return new File(jobDirectory, STDERR);
+	}
+
+	public File getStdOutFile() {
+		return new File(jobDirectory, STDOUT);
+	}
+
+	/**
+	 * Signals the job and everything it started, without waiting for it.
+	 */
+	public void kill() {
+		Process p;
+		synchronized (this) {
+			if ((process == null) || killed || failed) {
+				return;
+			}
+			try {
+				process.exitValue();
+				// already finished
+				return;
+			} catch (IllegalThreadStateException e) {
+				killed = true;
+				p = process;
+			}
+		}
+		destroyTree(p);
+	}
+
+	public void setApplication(String application) {
+		this.application = application;
+	}
+
+	public void setCommandline(String commandline) {
+		this.commandline = commandline;
+	}
+
+	private void stageIn() throws IOException {
+		for (String url : inputFiles) {
+			File source = url.startsWith("file:") ? new File(URI.create(url))
+					: new File(url);
+			if (!source.exists()) {
+				throw new IOException("Input file not available locally: "
+						+ url);
+			}
+			FileUtils.copyFileToDirectory(source, jobDirectory);
+		}
+	}
+
+	/**
+	 * Stages the input files into the job directory and starts the process.
+	 */
+	public synchronized void start() {
+		if (process != null) {
+			throw new IllegalStateException("Job " + jobname
+					+ " already started.");
+		}
+		try {
+			jobDirectory.mkdirs();
+			stageIn();
+
+			ProcessBuilder pb = new ProcessBuilder("sh", "-c", commandline);
+			pb.directory(jobDirectory);
+			pb.environment().putAll(environment);
+			pb.environment().put("GRISU_APPLICATION", application);
+			pb.environment().put("GRISU_EXECUTABLE",
+					StringUtils.substringBefore(commandline.trim(), " "));
+
+			process = pb.start();
+			process.getOutputStream().close();
+			pumps.add(pump(process.getInputStream(), getStdOutFile()));
+			pumps.add(pump(process.getErrorStream(), getStdErrFile()));
+		} catch (IOException e) {
+			failed = true;
+			throw new RuntimeException("Can't start job " + jobname + ": "
+					+ e.getLocalizedMessage(), e);
+		}
+	}
+
+}
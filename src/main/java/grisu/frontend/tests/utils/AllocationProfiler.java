@@ -0,0 +1,212 @@
+package grisu.frontend.tests.utils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Measures how much the client allocates, and how much time the JVM spends
+ * in garbage collection, per job {@link Phase}.
+ *
+ * Allocation is counted per thread with the HotSpot extension of
+ * {@link ThreadMXBean} (<code>com.sun.management.ThreadMXBean</code>), so
+ * it's only attributed to the thread that runs the phase, which is what
+ * {@link TimedJob} does. GC time is JVM wide, so with concurrent jobs it's
+ * only an indication of how much GC overlapped a phase.
+ *
+ * Profiling is enabled by {@link TestConfig#isProfileAllocations()}, and
+ * needs a JVM that supports thread allocation counting (HotSpot 6u25+; not
+ * for virtual threads). Otherwise {@link #mark()} returns null and nothing
+ * is recorded. The results are printed when the JVM shuts down.
+ */
+public class AllocationProfiler {
+
+	/**
+	 * The allocation and GC counters of the current thread at the start of a
+	 * phase.
+	 */
+	public static class Mark {
+
+		private final long allocatedBytes;
+		private final long gcTimeInMs;
+
+		private Mark(long allocatedBytes, long gcTimeInMs) {
+			this.allocatedBytes = allocatedBytes;
+			this.gcTimeInMs = gcTimeInMs;
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(AllocationProfiler.class);
+
+	private static final ConcurrentMap<String, ConcurrentMap<Phase, LatencyHistogram>> allocations = Maps
+			.newConcurrentMap();
+	private static final ConcurrentMap<String, ConcurrentMap<Phase, LatencyHistogram>> gcTimes = Maps
+			.newConcurrentMap();
+
+	private static final boolean supported = enable();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread("allocation-report") {
+			@Override
+			public void run() {
+				if (!allocations.isEmpty()) {
+					System.out.println(getReport());
+				}
+			}
+		});
+	}
+
+	private static boolean enable() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+				return false;
+			}
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (!sunBean.isThreadAllocatedMemorySupported()) {
+				return false;
+			}
+			sunBean.setThreadAllocatedMemoryEnabled(true);
+			return true;
+		} catch (Throwable t) {
+			myLogger.warn("Can't enable allocation counting: "
+					+ t.getLocalizedMessage());
+			return false;
+		}
+	}
+
+	private static long getAllocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean()).getThreadAllocatedBytes(Thread
+				.currentThread().getId());
+	}
+
+	/**
+	 * The time all collectors of this JVM spent in garbage collection so far.
+	 */
+	public static long getGcTimeInMs() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	private static LatencyHistogram getHistogram(
+			ConcurrentMap<String, ConcurrentMap<Phase, LatencyHistogram>> histograms,
+			String backend, Phase phase) {
+		ConcurrentMap<Phase, LatencyHistogram> phases = histograms
+				.get(backend);
+		if (phases == null) {
+			histograms.putIfAbsent(backend,
+					Maps.<Phase, LatencyHistogram> newConcurrentMap());
+			phases = histograms.get(backend);
+		}
+		LatencyHistogram h = phases.get(phase);
+		if (h == null) {
+			phases.putIfAbsent(phase, new LatencyHistogram(TestConfig
+					.getTestConfig().getHistogramMaxSamples()));
+			h = phases.get(phase);
+		}
+		return h;
+	}
+
+	/**
+	 * The histogram of bytes allocated per phase, for a backend and phase.
+	 */
+	public static LatencyHistogram getAllocations(String backend, Phase phase) {
+		return getHistogram(allocations, backend, phase);
+	}
+
+	/**
+	 * The heap that's still in use after a full garbage collection, i.e. what
+	 * the client retains.
+	 */
+	public static long getRetainedHeapInBytes() {
+		// twice, so objects that were only reachable from finalizers are
+		// collected too
+		System.gc();
+		System.runFinalization();
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+				.getUsed();
+	}
+
+	public static String getReport() {
+		StringBuffer report = new StringBuffer(
+				"Client allocation per job phase (KB) and GC time during it (ms):\n");
+		for (String backend : Sets.newTreeSet(allocations.keySet())) {
+			Map<Phase, LatencyHistogram> phases = allocations.get(backend);
+			long total = 0;
+			int jobs = 0;
+			for (Phase phase : Phase.values()) {
+				LatencyHistogram h = phases.get(phase);
+				if (h == null) {
+					continue;
+				}
+				LatencyHistogram gc = getHistogram(gcTimes, backend, phase);
+				report.append(String.format(
+						"\t%-12s %-12s mean=%10.1f p50=%8d p99=%8d  gc mean=%6.1f max=%6d%n",
+						backend, phase, h.getMean() / 1024,
+						h.getPercentile(50) / 1024,
+						h.getPercentile(99) / 1024, gc.getMean(), gc.getMax()));
+				total += (long) (h.getMean() * h.getCount());
+			}
+			// every job is created once, output is fetched more often
+			if (phases.containsKey(Phase.CREATE)) {
+				jobs = phases.get(Phase.CREATE).getCount();
+			}
+			if (jobs > 0) {
+				report.append(String.format("\t%-12s %-12s %10.1f KB per job%n",
+						backend, "total", total / 1024.0 / jobs));
+			}
+		}
+		return report.toString();
+	}
+
+	public static boolean isSupported() {
+		return supported;
+	}
+
+	/**
+	 * Marks the start of a phase on the current thread.
+	 *
+	 * @return the mark, or null if profiling is disabled or not supported
+	 */
+	public static Mark mark() {
+		if (!supported || !TestConfig.getTestConfig().isProfileAllocations()) {
+			return null;
+		}
+		long allocated = getAllocatedBytes();
+		if (allocated < 0) {
+			// e.g. a virtual thread
+			return null;
+		}
+		return new Mark(allocated, getGcTimeInMs());
+	}
+
+	/**
+	 * Records the allocation and GC time since a mark taken on the current
+	 * thread. Does nothing if the mark is null.
+	 */
+	public static void record(String backend, Phase phase, Mark mark) {
+		if (mark == null) {
+			return;
+		}
+		getHistogram(allocations, backend, phase).record(
+				getAllocatedBytes() - mark.allocatedBytes);
+		getHistogram(gcTimes, backend, phase).record(
+				getGcTimeInMs() - mark.gcTimeInMs);
+	}
+
+}
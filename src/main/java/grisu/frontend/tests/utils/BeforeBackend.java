@@ -0,0 +1,18 @@
+package grisu.frontend.tests.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a <code>public static</code> method that is run once per backend,
+ * before any of the tests for that backend.
+ *
+ * The method gets the same arguments as the test class constructor (see
+ * {@link ParallelParameterized}).
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface BeforeBackend {
+}
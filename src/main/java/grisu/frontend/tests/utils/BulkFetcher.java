@@ -0,0 +1,189 @@
+package grisu.frontend.tests.utils;
+
+import grisu.model.FileManager;
+import grisu.model.dto.GridFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Downloads all files of a remote directory (e.g. a job directory)
+ * concurrently, using a bounded pool.
+ *
+ * The directory is listed once by the caller; every file is then downloaded
+ * and handed to a {@link FileConsumer} as a stream, so contents are never held
+ * in memory as a whole. Per-file and aggregate throughput is logged.
+ */
+public class BulkFetcher {
+
+	/**
+	 * Receives the content of a downloaded file.
+	 *
+	 * Can be called concurrently from several download threads.
+	 */
+	public interface FileConsumer {
+		void consume(GridFile file, InputStream content) throws Exception;
+	}
+
+	/**
+	 * The statistics of one bulk fetch.
+	 */
+	public static class Result {
+
+		private final int files;
+		private final long bytes;
+		private final long durationInMs;
+
+		Result(int files, long bytes, long durationInMs) {
+			this.files = files;
+			this.bytes = bytes;
+			this.durationInMs = durationInMs;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getDurationInMs() {
+			return durationInMs;
+		}
+
+		public int getFiles() {
+			return files;
+		}
+
+		public double getMbPerSecond() {
+			return (bytes / (1024.0 * 1024.0))
+					/ (Math.max(1, durationInMs) / 1000.0);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d files, %d bytes in %d ms (%.2f MB/s)",
+					files, bytes, durationInMs, getMbPerSecond());
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(BulkFetcher.class);
+
+	private final FileManager fm;
+	private final int threads;
+
+	public BulkFetcher(FileManager fm, int threads) {
+		this.fm = fm;
+		this.threads = threads;
+	}
+
+	/**
+	 * Downloads all files that are direct children of the directory.
+	 *
+	 * @param directory
+	 *            the (already listed) directory
+	 * @param consumer
+	 *            receives the content of every file
+	 * @return the statistics
+	 * @throws Exception
+	 *             the first exception a download or the consumer threw
+	 */
+	public Result fetch(GridFile directory, final FileConsumer consumer)
+			throws Exception {
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("bulk-fetch-%d")
+						.build());
+
+		long start = System.currentTimeMillis();
+		List<Future<Long>> downloads = Lists.newArrayList();
+		try {
+			for (final GridFile child : directory.getChildren()) {
+				if (child.isFolder()) {
+					continue;
+				}
+				downloads.add(executor.submit(new Callable<Long>() {
+					public Long call() throws Exception {
+						return fetchFile(child, consumer);
+					}
+				}));
+			}
+
+			long bytes = 0;
+			for (Future<Long> f : downloads) {
+				try {
+					bytes += f.get();
+				} catch (ExecutionException e) {
+					throw (e.getCause() instanceof Exception) ? (Exception) e
+							.getCause() : e;
+				}
+			}
+
+			Result result = new Result(downloads.size(), bytes,
+					System.currentTimeMillis() - start);
+			myLogger.info("Fetched " + directory.getUrl() + ": " + result);
+			return result;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private long fetchFile(GridFile file, FileConsumer consumer)
+			throws Exception {
+		long start = System.currentTimeMillis();
+		File local = fm.downloadFile(file.getUrl());
+		InputStream in = new FileInputStream(local);
+		try {
+			consumer.consume(file, in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		long duration = System.currentTimeMillis() - start;
+		myLogger.debug("Fetched " + file.getUrl() + ": "
+				+ new Result(1, local.length(), duration));
+		return local.length();
+	}
+
+	/**
+	 * Downloads all files of the directory into a local directory.
+	 *
+	 * @param directory
+	 *            the (already listed) remote directory
+	 * @param target
+	 *            the local directory
+	 * @return the statistics
+	 * @throws Exception
+	 *             the first exception a download threw
+	 */
+	public Result fetchTo(GridFile directory, final File target)
+			throws Exception {
+		target.mkdirs();
+		return fetch(directory, new FileConsumer() {
+			public void consume(GridFile file, InputStream content)
+					throws Exception {
+				OutputStream out = new FileOutputStream(new File(target,
+						file.getName()));
+				try {
+					IOUtils.copy(content, out);
+				} finally {
+					IOUtils.closeQuietly(out);
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,121 @@
+package grisu.frontend.tests.utils;
+
+import grisu.frontend.model.job.GrisuJob;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Stages the local input files of a job as one zip archive instead of one
+ * transfer per file.
+ *
+ * The archive and <code>unbundle.sh</code> are the only local inputs of the
+ * job. The job's commandline is wrapped so that the script unpacks the
+ * archive into the job directory before it runs the original command. Remote
+ * inputs can't be bundled on the client, they are still added one by one.
+ *
+ * This only pays off for many small files: the archive is written locally
+ * before submission, and it is uncompressed in the job directory.
+ */
+public class BundledStaging {
+
+	private static final AtomicInteger bundles = new AtomicInteger();
+
+	private static boolean isRemote(String url) {
+		return url.contains("://") && !url.startsWith("file:");
+	}
+
+	/**
+	 * Creates a zip archive of the files, each stored by its name only.
+	 *
+	 * @param files
+	 *            the files
+	 * @param archive
+	 *            the archive to create
+	 * @throws IOException
+	 *             if a file can't be read or the archive can't be written
+	 */
+	public static void bundle(List<File> files, File archive)
+			throws IOException {
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(
+				archive));
+		try {
+			for (File f : files) {
+				out.putNextEntry(new ZipEntry(f.getName()));
+				InputStream in = new FileInputStream(f);
+				try {
+					IOUtils.copy(in, out);
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+				out.closeEntry();
+			}
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Sets the commandline and inputs of a job, bundling all local inputs.
+	 *
+	 * Call this instead of <code>setCommandline</code> and
+	 * <code>addInputFileUrl</code>, before the job is created.
+	 *
+	 * @param job
+	 *            the job
+	 * @param commandline
+	 *            the commandline to run once the inputs are unpacked
+	 * @param inputs
+	 *            local paths and remote urls of the input files
+	 * @return the archive, which can be deleted once the job is submitted, or
+	 *         null if there were no local inputs
+	 * @throws IOException
+	 *             if the archive can't be created
+	 */
+	public static File stage(GrisuJob job, String commandline,
+			List<String> inputs) throws IOException {
+
+		List<File> local = Lists.newArrayList();
+		for (String input : inputs) {
+			if (isRemote(input)) {
+				job.addInputFileUrl(input);
+			} else {
+				local.add(input.startsWith("file:") ? new File(
+						URI.create(input)) : new File(input));
+			}
+		}
+
+		if (local.isEmpty()) {
+			job.setCommandline(commandline);
+			return null;
+		}
+
+		TestConfig config = TestConfig.getTestConfig();
+		File archive = new File(Input.INPUT_FILES_DIR, "inputs-"
+				+ config.getJobnamePrefix() + "_" + bundles.incrementAndGet()
+				+ ".zip");
+		Input.INPUT_FILES_DIR.mkdirs();
+		bundle(local, archive);
+
+		job.addInputFileUrl(config.getUnbundleScript());
+		job.addInputFileUrl(archive.getAbsolutePath());
+		job.setCommandline(StringUtils.join(new String[] { "sh",
+				config.getUnbundleScriptName(), archive.getName(),
+				commandline }, " "));
+		return archive;
+	}
+
+}
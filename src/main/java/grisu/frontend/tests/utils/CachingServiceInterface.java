@@ -0,0 +1,217 @@
+package grisu.frontend.tests.utils;
+
+import grisu.control.ServiceInterface;
+import grisu.jcommons.constants.JobSubmissionProperty;
+import grisu.model.info.dto.DtoProperties;
+import grisu.model.info.dto.DtoStringList;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link ServiceInterface} decorator that memoizes info-system queries
+ * (<code>findQueues</code> and <code>getFqans</code>).
+ *
+ * findQueues results are keyed on the FQAN plus all job properties, sorted,
+ * trimmed and with blank values left out, except the ones that only
+ * identify a job ({@link #JOB_IDENTITY_PROPERTIES}: job name, commandline,
+ * input files, ...), which would split identical queries. Any other property
+ * may select queues (host count, MPI, virtual memory, ...), so it is part of
+ * the key even if this class doesn't know it. Entries expire after a fixed time and the cache is
+ * size-bounded. Answers are returned as immutable copies, so callers can't
+ * change what the next caller gets. All other calls are passed through to
+ * the wrapped serviceinterface unchanged.
+ */
+public class CachingServiceInterface implements InvocationHandler {
+
+	/**
+	 * The job properties findQueues answers don't depend on.
+	 */
+	public static final Set<String> JOB_IDENTITY_PROPERTIES = ImmutableSet
+			.of(JobSubmissionProperty.JOBNAME.toString(),
+					JobSubmissionProperty.COMMANDLINE.toString(),
+					JobSubmissionProperty.INPUT_FILE_URLS.toString(),
+					JobSubmissionProperty.STDOUT.toString(),
+					JobSubmissionProperty.STDERR.toString(),
+					JobSubmissionProperty.STDIN.toString(),
+					JobSubmissionProperty.EMAIL_ADDRESS.toString(),
+					JobSubmissionProperty.EMAIL_ON_START.toString(),
+					JobSubmissionProperty.EMAIL_ON_FINISH.toString());
+
+	/**
+	 * Wraps a serviceinterface.
+	 *
+	 * @param si
+	 *            the serviceinterface to wrap
+	 * @param ttlInSeconds
+	 *            how long an answer is cached
+	 * @param maxSize
+	 *            the maximum number of cached answers
+	 * @return the caching serviceinterface
+	 */
+	public static ServiceInterface wrap(ServiceInterface si, int ttlInSeconds,
+			int maxSize) {
+		return (ServiceInterface) Proxy.newProxyInstance(
+				CachingServiceInterface.class.getClassLoader(),
+				new Class<?>[] { ServiceInterface.class },
+				new CachingServiceInterface(si, ttlInSeconds, maxSize));
+	}
+
+	/**
+	 * Returns the cache behind a serviceinterface.
+	 *
+	 * @return the cache, or null if the serviceinterface is not cached
+	 */
+	public static CachingServiceInterface get(ServiceInterface si) {
+		if (Proxy.isProxyClass(si.getClass())) {
+			InvocationHandler h = Proxy.getInvocationHandler(si);
+			if (h instanceof CachingServiceInterface) {
+				return (CachingServiceInterface) h;
+			}
+		}
+		return null;
+	}
+
+	private final ServiceInterface si;
+	private final Cache<String, Object> cache;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final ConcurrentMap<String, AtomicLong> hitsPerKey = Maps
+			.newConcurrentMap();
+	private final LatencyHistogram backendLatency = new LatencyHistogram();
+
+	private CachingServiceInterface(ServiceInterface si, int ttlInSeconds,
+			int maxSize) {
+		this.si = si;
+		this.cache = CacheBuilder.newBuilder().maximumSize(maxSize)
+				.expireAfterWrite(ttlInSeconds, TimeUnit.SECONDS).build();
+	}
+
+	/**
+	 * Creates the cache key for a call, or returns null if the call is not
+	 * cached.
+	 */
+	private String cacheKey(Method method, Object[] args) {
+		if ("getFqans".equals(method.getName()) && (args == null)) {
+			return "getFqans";
+		}
+		if ("findQueues".equals(method.getName()) && (args != null)
+				&& (args.length == 2) && (args[0] instanceof DtoProperties)) {
+			return findQueuesKey((DtoProperties) args[0], (String) args[1]);
+		}
+		return null;
+	}
+
+	private String findQueuesKey(DtoProperties properties, String fqan) {
+		Map<String, String> map = Maps.newTreeMap();
+		map.putAll(properties.propertiesAsMap());
+		StringBuffer key = new StringBuffer("findQueues|").append(fqan);
+		for (String p : map.keySet()) {
+			String value = StringUtils.trimToNull(map.get(p));
+			if ((value != null) && !JOB_IDENTITY_PROPERTIES.contains(p)) {
+				key.append('|').append(p).append('=').append(value);
+			}
+		}
+		return key.toString();
+	}
+
+	public LatencyHistogram getBackendLatency() {
+		return backendLatency;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * The number of findQueues calls with the same key as the specified
+	 * query that were answered from the cache.
+	 */
+	public long getHits(DtoProperties properties, String fqan) {
+		AtomicLong h = hitsPerKey.get(findQueuesKey(properties, fqan));
+		return (h == null) ? 0 : h.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public ServiceInterface getWrapped() {
+		return si;
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+
+		String key = cacheKey(method, args);
+		if (key == null) {
+			return passThrough(method, args);
+		}
+
+		Object result = cache.getIfPresent(key);
+		if (result != null) {
+			hits.incrementAndGet();
+			AtomicLong h = hitsPerKey.get(key);
+			if (h == null) {
+				hitsPerKey.putIfAbsent(key, new AtomicLong());
+				h = hitsPerKey.get(key);
+			}
+			h.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			long start = System.currentTimeMillis();
+			result = immutableCopy(passThrough(method, args));
+			backendLatency.record(System.currentTimeMillis() - start);
+			if (result != null) {
+				cache.put(key, result);
+			}
+		}
+
+		// callers must not be able to modify the cached answer
+		return immutableCopy(result);
+	}
+
+	private Object immutableCopy(Object result) {
+		if (result instanceof List) {
+			return ImmutableList.copyOf((Collection<?>) result);
+		}
+		if (result instanceof DtoStringList) {
+			return DtoStringList.fromStringColletion(ImmutableList
+					.copyOf(((DtoStringList) result).getStringList()));
+		}
+		return result;
+	}
+
+	private Object passThrough(Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(si, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "info-system cache: hits=" + hits + " misses=" + misses
+				+ " backend latency (ms): " + backendLatency;
+	}
+
+}
@@ -0,0 +1,99 @@
+package grisu.frontend.tests.utils;
+
+import grisu.control.ServiceInterface;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Maps;
+
+/**
+ * A {@link ServiceInterface} decorator that counts the calls made to the
+ * wrapped serviceinterface, per method name.
+ *
+ * Used to measure how much load a client pattern puts on a backend.
+ */
+public class CountingServiceInterface implements InvocationHandler {
+
+	public static CountingServiceInterface get(ServiceInterface si) {
+		if (Proxy.isProxyClass(si.getClass())) {
+			InvocationHandler h = Proxy.getInvocationHandler(si);
+			if (h instanceof CountingServiceInterface) {
+				return (CountingServiceInterface) h;
+			}
+		}
+		return null;
+	}
+
+	public static ServiceInterface wrap(ServiceInterface si) {
+		return (ServiceInterface) Proxy.newProxyInstance(
+				CountingServiceInterface.class.getClassLoader(),
+				new Class<?>[] { ServiceInterface.class },
+				new CountingServiceInterface(si));
+	}
+
+	private final ServiceInterface si;
+	private final ConcurrentMap<String, AtomicLong> counts = Maps
+			.newConcurrentMap();
+
+	private CountingServiceInterface(ServiceInterface si) {
+		this.si = si;
+	}
+
+	/**
+	 * The number of calls per method name.
+	 */
+	public Map<String, Long> getCounts() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (String method : counts.keySet()) {
+			result.put(method, counts.get(method).get());
+		}
+		return result;
+	}
+
+	/**
+	 * The number of calls to methods whose name contains the text (case
+	 * insensitive), e.g. "status".
+	 */
+	public long getCount(String text) {
+		long total = 0;
+		for (String method : counts.keySet()) {
+			if (method.toLowerCase().contains(text.toLowerCase())) {
+				total += counts.get(method).get();
+			}
+		}
+		return total;
+	}
+
+	public long getTotal() {
+		return getCount("");
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		if (method.getDeclaringClass() != Object.class) {
+			AtomicLong count = counts.get(method.getName());
+			if (count == null) {
+				counts.putIfAbsent(method.getName(), new AtomicLong());
+				count = counts.get(method.getName());
+			}
+			count.incrementAndGet();
+		}
+		try {
+			return method.invoke(si, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	public void reset() {
+		counts.clear();
+	}
+
+}
@@ -0,0 +1,402 @@
+package grisu.frontend.tests.utils;
+
+import grisu.control.ServiceInterface;
+import grisu.jcommons.constants.JobSubmissionProperty;
+import grisu.model.info.dto.DtoProperties;
+import grisu.model.info.dto.Queue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * An offline copy of the parts of a backend's info system the tests use: the
+ * VOs, and which queues accept which application (and version) up to which
+ * walltime.
+ *
+ * A snapshot is captured with {@link #capture(ServiceInterface, Map)} using
+ * only <code>getFqans</code> and <code>findQueues</code>. Walltime limits are
+ * found by bisecting the walltime of <code>findQueues</code> queries (a
+ * queue is returned for every walltime up to its limit), so the number of
+ * queries grows with the number of distinct limits, not with the number of
+ * queues.
+ *
+ * Snapshots are stored as gzipped, tab separated text, one line per VO
+ * (<code>F fqan</code>) and per queue match
+ * (<code>Q fqan application version queue maxWalltimeInSeconds</code>,
+ * <code>-</code> meaning any application or version). In memory they are
+ * indexed by VO and application/version, with the queues sorted by walltime
+ * limit, so {@link #findQueues(String, String, String, int)} doesn't scan
+ * all queues.
+ *
+ * Usage: <code>InfoSystemSnapshot &lt;backend&gt; &lt;file&gt;</code> captures
+ * a snapshot and reports its size and lookup latency.
+ */
+public class InfoSystemSnapshot {
+
+	/**
+	 * One queue that accepts jobs of an application (version) for a VO.
+	 */
+	public static class Entry {
+
+		private final String fqan;
+		private final String application;
+		private final String version;
+		private final String queue;
+		private final int maxWalltimeInSeconds;
+
+		public Entry(String fqan, String application, String version,
+				String queue, int maxWalltimeInSeconds) {
+			this.fqan = fqan;
+			this.application = application;
+			this.version = version;
+			this.queue = queue;
+			this.maxWalltimeInSeconds = maxWalltimeInSeconds;
+		}
+
+		public String getApplication() {
+			return application;
+		}
+
+		public String getFqan() {
+			return fqan;
+		}
+
+		public int getMaxWalltimeInSeconds() {
+			return maxWalltimeInSeconds;
+		}
+
+		/**
+		 * The queue, as submission location (<code>queue:host</code>).
+		 */
+		public String getQueue() {
+			return queue;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(InfoSystemSnapshot.class);
+
+	public static final String ANY = "-";
+
+	/**
+	 * Queues that still accept jobs with this walltime are recorded with
+	 * this limit.
+	 */
+	public static final int MAX_WALLTIME_IN_SECONDS = 31 * 24 * 3600;
+
+	/**
+	 * Captures the info system of a backend.
+	 *
+	 * @param si
+	 *            the backend
+	 * @param applications
+	 *            the applications to capture, each with the versions to
+	 *            capture (an empty list captures the application without
+	 *            version)
+	 * @return the snapshot
+	 */
+	public static InfoSystemSnapshot capture(ServiceInterface si,
+			Map<String, List<String>> applications) {
+
+		InfoSystemSnapshot snapshot = new InfoSystemSnapshot();
+		for (String fqan : si.getFqans().getStringList()) {
+			snapshot.fqans.add(fqan);
+			snapshot.captureWalltimes(si, fqan, ANY, ANY);
+			for (String app : applications.keySet()) {
+				snapshot.captureWalltimes(si, fqan, app, ANY);
+				for (String version : applications.get(app)) {
+					snapshot.captureWalltimes(si, fqan, app, version);
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	private static String key(String application, String version) {
+		return application + "|" + version;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length != 2) {
+			System.err.println("Usage: InfoSystemSnapshot <backend> <file>");
+			System.exit(1);
+		}
+
+		TestConfig config = TestConfig.getTestConfig();
+		ServiceInterface si;
+		try {
+			si = config.getServiceInterface(args[0]);
+		} catch (RuntimeException e) {
+			System.err.println(e.getLocalizedMessage());
+			System.exit(1);
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		InfoSystemSnapshot snapshot = capture(si,
+				config.getSnapshotApplications());
+		long captureTime = System.currentTimeMillis() - start;
+		File file = new File(args[1]);
+		snapshot.write(file);
+
+		System.out.println(String.format(
+				"Captured %s in %d ms (%d queries): %s, %d bytes", args[0],
+				captureTime, snapshot.queries, snapshot, file.length()));
+
+		// lookup latency, for every recorded combination
+		List<Entry> entries = snapshot.getEntries();
+		int lookups = 0;
+		start = System.nanoTime();
+		for (int round = 0; round < 100; round++) {
+			for (Entry e : entries) {
+				snapshot.findQueues(e.getFqan(), e.getApplication(),
+						e.getVersion(), e.getMaxWalltimeInSeconds());
+				lookups++;
+			}
+		}
+		long ns = System.nanoTime() - start;
+		System.out.println(String.format("findQueues: %.2f us per lookup",
+				(ns / 1000.0) / Math.max(1, lookups)));
+
+		System.exit(0);
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #write(File)}.
+	 *
+	 * @param file
+	 *            the snapshot file
+	 * @return the snapshot
+	 * @throws IOException
+	 *             if the file can't be read or is invalid
+	 */
+	public static InfoSystemSnapshot read(File file) throws IOException {
+		InfoSystemSnapshot snapshot = new InfoSystemSnapshot();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new FileInputStream(file)), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] f = line.split("\t");
+				if ("F".equals(f[0]) && (f.length == 2)) {
+					snapshot.fqans.add(f[1]);
+				} else if ("Q".equals(f[0]) && (f.length == 6)) {
+					snapshot.add(new Entry(f[1], f[2], f[3], f[4], Integer
+							.parseInt(f[5])));
+				} else {
+					throw new IOException("Invalid snapshot line in " + file
+							+ ": " + line);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid snapshot " + file + ": "
+					+ e.getLocalizedMessage(), e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+		return snapshot;
+	}
+
+	private final Set<String> fqans = Sets.newTreeSet();
+	private final List<Entry> entries = Lists.newArrayList();
+
+	// fqan -> application|version -> max walltime -> queues
+	private final Map<String, Map<String, TreeMap<Integer, List<String>>>> index = Maps
+			.newHashMap();
+
+	private int queries = 0;
+
+	public InfoSystemSnapshot() {
+	}
+
+	/**
+	 * Adds an entry to the snapshot.
+	 */
+	public void add(Entry entry) {
+		entries.add(entry);
+
+		Map<String, TreeMap<Integer, List<String>>> byApp = index
+				.get(entry.fqan);
+		if (byApp == null) {
+			byApp = Maps.newHashMap();
+			index.put(entry.fqan, byApp);
+		}
+		String key = key(entry.application, entry.version);
+		TreeMap<Integer, List<String>> byWalltime = byApp.get(key);
+		if (byWalltime == null) {
+			byWalltime = new TreeMap<Integer, List<String>>();
+			byApp.put(key, byWalltime);
+		}
+		List<String> queues = byWalltime.get(entry.maxWalltimeInSeconds);
+		if (queues == null) {
+			queues = Lists.newArrayList();
+			byWalltime.put(entry.maxWalltimeInSeconds, queues);
+		}
+		queues.add(entry.queue);
+	}
+
+	public void addFqan(String fqan) {
+		fqans.add(fqan);
+	}
+
+	/**
+	 * Finds the queues a job can run on for every walltime, by bisecting the
+	 * walltime until the set of returned queues changes.
+	 */
+	private void bisect(ServiceInterface si, String fqan, String app,
+			String version, int lo, Set<String> atLo, int hi, Set<String> atHi) {
+		if (atLo.equals(atHi)) {
+			return;
+		}
+		if (hi - lo <= 1) {
+			for (String q : Sets.difference(atLo, atHi)) {
+				add(new Entry(fqan, app, version, q, lo));
+			}
+			return;
+		}
+		int mid = lo + ((hi - lo) / 2);
+		Set<String> atMid = probe(si, fqan, app, version, mid);
+		bisect(si, fqan, app, version, lo, atLo, mid, atMid);
+		bisect(si, fqan, app, version, mid, atMid, hi, atHi);
+	}
+
+	private void captureWalltimes(ServiceInterface si, String fqan,
+			String app, String version) {
+		Set<String> atMin = probe(si, fqan, app, version, 1);
+		Set<String> atMax = probe(si, fqan, app, version,
+				MAX_WALLTIME_IN_SECONDS);
+		for (String q : atMax) {
+			add(new Entry(fqan, app, version, q, MAX_WALLTIME_IN_SECONDS));
+		}
+		bisect(si, fqan, app, version, 1, atMin, MAX_WALLTIME_IN_SECONDS,
+				atMax);
+	}
+
+	/**
+	 * Finds the queues that accept a job, like <code>findQueues</code> on the
+	 * backend.
+	 *
+	 * @param fqan
+	 *            the VO
+	 * @param application
+	 *            the application, or null for any
+	 * @param version
+	 *            the version, or null for any. A version that wasn't
+	 *            captured has no queues, like on a backend that doesn't
+	 *            have it installed.
+	 * @param walltimeInSeconds
+	 *            the walltime of the job, or a value &lt;= 0 for any
+	 * @return the queues, as submission locations
+	 */
+	public List<String> findQueues(String fqan, String application,
+			String version, int walltimeInSeconds) {
+
+		Map<String, TreeMap<Integer, List<String>>> byApp = index.get(fqan);
+		if (byApp == null) {
+			return Collections.emptyList();
+		}
+		String app = StringUtils.isBlank(application) ? ANY : application;
+		TreeMap<Integer, List<String>> byWalltime = byApp.get(key(app,
+				StringUtils.isBlank(version) ? ANY : version));
+		if (byWalltime == null) {
+			return Collections.emptyList();
+		}
+
+		List<String> result = Lists.newArrayList();
+		for (List<String> queues : byWalltime.tailMap(
+				Math.max(1, walltimeInSeconds), true).values()) {
+			result.addAll(queues);
+		}
+		return result;
+	}
+
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	public Set<String> getFqans() {
+		return Collections.unmodifiableSet(fqans);
+	}
+
+	private Set<String> probe(ServiceInterface si, String fqan, String app,
+			String version, int walltimeInSeconds) {
+		Map<String, String> props = Maps.newHashMap();
+		if (!ANY.equals(app)) {
+			props.put(JobSubmissionProperty.APPLICATIONNAME.toString(), app);
+		}
+		if (!ANY.equals(version)) {
+			props.put(JobSubmissionProperty.APPLICATIONVERSION.toString(),
+					version);
+		}
+		// rounded up, a queue must allow at least the probed walltime
+		props.put(JobSubmissionProperty.WALLTIME_IN_MINUTES.toString(),
+				Integer.toString((walltimeInSeconds + 59) / 60));
+
+		queries++;
+		Set<String> result = Sets.newTreeSet();
+		for (Queue q : si.findQueues(DtoProperties.createProperties(props),
+				fqan)) {
+			result.add(q.toString());
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return fqans.size() + " fqans, " + entries.size() + " queue entries";
+	}
+
+	/**
+	 * Writes the snapshot, gzipped.
+	 *
+	 * @param file
+	 *            the file (overwritten)
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public void write(File file) throws IOException {
+		Writer out = new OutputStreamWriter(new GZIPOutputStream(
+				new FileOutputStream(file)), "UTF-8");
+		try {
+			for (String fqan : fqans) {
+				out.write("F\t" + fqan + "\n");
+			}
+			for (Entry e : entries) {
+				out.write(StringUtils.join(new Object[] { "Q", e.fqan,
+						e.application, e.version, e.queue,
+						e.maxWalltimeInSeconds }, '\t')
+						+ "\n");
+			}
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+}
@@ -11,7 +11,7 @@ public class Input {
 	public static File INPUT_FILES_DIR = new File(System.getProperty("java.io.tmpdir"), "grisu-integration-input");
 
 
-	static String getFile(String fileName) {
+	static synchronized String getFile(String fileName) {
 
 		File file = new File(INPUT_FILES_DIR, fileName);
 
@@ -0,0 +1,138 @@
+package grisu.frontend.tests.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Generates synthetic input files of arbitrary size.
+ *
+ * Files are written through memory-mapped windows of {@link #WINDOW_SIZE}
+ * bytes and filled with a fast, seeded pseudo-random sequence (so they don't
+ * compress away in transit and the same seed always produces the same
+ * content). The MD5 checksum is computed while writing.
+ */
+public class InputGenerator {
+
+	public static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	public static final long MB = 1024 * 1024;
+
+	/**
+	 * Calculates the MD5 checksum of a file, reading it through memory-mapped
+	 * windows.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the checksum as hex string
+	 */
+	public static String md5(File file) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "r");
+			FileChannel channel = raf.getChannel();
+			MessageDigest md5 = newDigest();
+			long size = channel.size();
+			for (long pos = 0; pos < size; pos += WINDOW_SIZE) {
+				long length = Math.min(WINDOW_SIZE, size - pos);
+				md5.update(channel.map(FileChannel.MapMode.READ_ONLY, pos,
+						length));
+			}
+			return toHex(md5.digest());
+		} catch (IOException e) {
+			throw new RuntimeException("Can't calculate checksum for " + file
+					+ ": " + e.getLocalizedMessage(), e);
+		} finally {
+			closeQuietly(raf);
+		}
+	}
+
+	private static void closeQuietly(RandomAccessFile raf) {
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Creates (or overwrites) a file of the specified size.
+	 *
+	 * @param file
+	 *            the file to create
+	 * @param sizeInBytes
+	 *            the size of the file
+	 * @param seed
+	 *            the seed for the content
+	 * @return the MD5 checksum of the file, as hex string
+	 */
+	public static String generate(File file, long sizeInBytes, long seed) {
+
+		file.getParentFile().mkdirs();
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(sizeInBytes);
+			FileChannel channel = raf.getChannel();
+			MessageDigest md5 = newDigest();
+
+			// xorshift, must not start at 0
+			long x = (seed == 0) ? 0x9E3779B97F4A7C15L : seed;
+
+			for (long pos = 0; pos < sizeInBytes; pos += WINDOW_SIZE) {
+				int length = (int) Math.min(WINDOW_SIZE, sizeInBytes - pos);
+				MappedByteBuffer window = channel.map(
+						FileChannel.MapMode.READ_WRITE, pos, length);
+				window.order(ByteOrder.LITTLE_ENDIAN);
+
+				while (window.remaining() >= 8) {
+					x ^= x << 13;
+					x ^= x >>> 7;
+					x ^= x << 17;
+					window.putLong(x);
+				}
+				while (window.hasRemaining()) {
+					window.put((byte) 'x');
+				}
+
+				window.flip();
+				md5.update(window);
+			}
+			return toHex(md5.digest());
+		} catch (IOException e) {
+			throw new RuntimeException("Can't create input file " + file
+					+ ": " + e.getLocalizedMessage(), e);
+		} finally {
+			closeQuietly(raf);
+		}
+	}
+
+	/**
+	 * Creates a MD5 digest, to calculate checksums that can be compared with
+	 * the ones calculated by this class.
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static String toHex(byte[] bytes) {
+		StringBuffer hex = new StringBuffer(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+}
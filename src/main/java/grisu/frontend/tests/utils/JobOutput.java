@@ -0,0 +1,55 @@
+package grisu.frontend.tests.utils;
+
+import grisu.frontend.model.job.GrisuJob;
+import grisu.jcommons.constants.JobSubmissionProperty;
+import grisu.model.FileManager;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+/**
+ * Opens the output of a job as a stream, instead of loading it into a String
+ * like {@link GrisuJob#getStdOutContent()} does.
+ *
+ * The file is downloaded to the local grisu cache first, so memory use
+ * doesn't depend on the size of the output. The file names are taken from
+ * the job's stdout/stderr properties, the grisu defaults are only used if
+ * those aren't set.
+ */
+public class JobOutput {
+
+	public static final String STDOUT_FILENAME = "stdout.txt";
+	public static final String STDERR_FILENAME = "stderr.txt";
+
+	public static InputStream open(GrisuJob job, FileManager fm,
+			String filename) throws Exception {
+		String url = job.getJobDirectoryUrl() + "/" + filename;
+		return new BufferedInputStream(new FileInputStream(
+				fm.downloadFile(url)));
+	}
+
+	public static InputStream openStdErr(GrisuJob job, FileManager fm)
+			throws Exception {
+		return open(job, fm,
+				getFilename(job, JobSubmissionProperty.STDERR, STDERR_FILENAME));
+	}
+
+	public static InputStream openStdOut(GrisuJob job, FileManager fm)
+			throws Exception {
+		return open(job, fm,
+				getFilename(job, JobSubmissionProperty.STDOUT, STDOUT_FILENAME));
+	}
+
+	private static String getFilename(GrisuJob job,
+			JobSubmissionProperty property, String defaultFilename) {
+		String filename = job.getStringJobSubmissionPropertyMap().get(
+				property.toString());
+		if (StringUtils.isBlank(filename)) {
+			return defaultFilename;
+		}
+		return filename.trim();
+	}
+
+}
@@ -0,0 +1,255 @@
+package grisu.frontend.tests.utils;
+
+import grisu.control.JobConstants;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.jcommons.constants.JobSubmissionProperty;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A trace of job submissions, one job per line, tab separated:
+ *
+ * <pre>
+ * submitTime  fqan  application  version  walltimeInSeconds  inputSizes  queueWaitInMs  runtimeInMs  status
+ * </pre>
+ *
+ * <code>submitTime</code> is in milliseconds since the epoch (only the
+ * differences matter for replay), <code>inputSizes</code> is a comma
+ * separated list of input file sizes in bytes, and <code>status</code> is
+ * <code>DONE</code> or <code>FAILED</code>. Empty fields are written as
+ * <code>-</code>, lines starting with <code>#</code> are ignored. Traces from
+ * production logs can be converted to this format and replayed with
+ * <code>grisu.frontend.tests.load.TraceReplay</code>.
+ *
+ * If {@link TestConfig#getTraceRecordFile()} is set, every job that is run
+ * through a {@link TimedJob} is appended to that file.
+ */
+public class JobTrace {
+
+	/**
+	 * One recorded job.
+	 */
+	public static class Entry {
+
+		private final long submitTime;
+		private final String fqan;
+		private final String application;
+		private final String version;
+		private final int walltimeInSeconds;
+		private final List<Long> inputSizes;
+		private final long queueWaitInMs;
+		private final long runtimeInMs;
+		private final boolean failed;
+
+		public Entry(long submitTime, String fqan, String application,
+				String version, int walltimeInSeconds, List<Long> inputSizes,
+				long queueWaitInMs, long runtimeInMs, boolean failed) {
+			this.submitTime = submitTime;
+			this.fqan = fqan;
+			this.application = application;
+			this.version = version;
+			this.walltimeInSeconds = walltimeInSeconds;
+			this.inputSizes = inputSizes;
+			this.queueWaitInMs = queueWaitInMs;
+			this.runtimeInMs = runtimeInMs;
+			this.failed = failed;
+		}
+
+		public String getApplication() {
+			return application;
+		}
+
+		public String getFqan() {
+			return fqan;
+		}
+
+		public List<Long> getInputSizes() {
+			return inputSizes;
+		}
+
+		public long getQueueWaitInMs() {
+			return queueWaitInMs;
+		}
+
+		public long getRuntimeInMs() {
+			return runtimeInMs;
+		}
+
+		public long getSubmitTime() {
+			return submitTime;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public int getWalltimeInSeconds() {
+			return walltimeInSeconds;
+		}
+
+		public boolean isFailed() {
+			return failed;
+		}
+
+		@Override
+		public String toString() {
+			return StringUtils.join(new Object[] { submitTime, field(fqan),
+					field(application), field(version), walltimeInSeconds,
+					inputSizes.isEmpty() ? "-" : StringUtils.join(inputSizes, ","),
+					queueWaitInMs, runtimeInMs, failed ? "FAILED" : "DONE" },
+					'\t');
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(JobTrace.class);
+
+	private static final Object recordLock = new Object();
+
+	private static String field(String value) {
+		return StringUtils.isBlank(value) ? "-" : value;
+	}
+
+	private static String value(String field) {
+		return "-".equals(field) ? null : field;
+	}
+
+	/**
+	 * Parses a trace file.
+	 *
+	 * @param file
+	 *            the trace
+	 * @return the entries, sorted by submission time
+	 * @throws IOException
+	 *             if the file can't be read or has an invalid line
+	 */
+	public static List<Entry> read(File file) throws IOException {
+		List<Entry> entries = Lists.newArrayList();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			int nr = 0;
+			while ((line = in.readLine()) != null) {
+				nr++;
+				if (StringUtils.isBlank(line) || line.startsWith("#")) {
+					continue;
+				}
+				String[] f = line.split("\t");
+				if (f.length != 9) {
+					throw new IOException("Invalid trace line " + nr + " in "
+							+ file + ": " + line);
+				}
+				List<Long> sizes = Lists.newArrayList();
+				if (value(f[5]) != null) {
+					for (String s : f[5].split(",")) {
+						sizes.add(Long.parseLong(s.trim()));
+					}
+				}
+				entries.add(new Entry(Long.parseLong(f[0]), value(f[1]),
+						value(f[2]), value(f[3]), Integer.parseInt(f[4]),
+						sizes, Long.parseLong(f[6]), Long.parseLong(f[7]),
+						"FAILED".equals(f[8])));
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid trace " + file + ": "
+					+ e.getLocalizedMessage(), e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry o1, Entry o2) {
+				return Long.valueOf(o1.submitTime).compareTo(o2.submitTime);
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * Appends a job that was run through a {@link TimedJob} to the trace file
+	 * configured in {@link TestConfig#getTraceRecordFile()}, if any.
+	 *
+	 * Errors are logged and otherwise ignored, recording must never fail a
+	 * test.
+	 */
+	static void record(TimedJob timed, String fqan, long submitTime,
+			long queueWaitInMs, long runtimeInMs) {
+
+		String traceFile = TestConfig.getTestConfig().getTraceRecordFile();
+		if (StringUtils.isBlank(traceFile)) {
+			return;
+		}
+
+		try {
+			GrisuJob job = timed.getJob();
+			List<Long> sizes = Lists.newArrayList();
+			String inputs = job.getStringJobSubmissionPropertyMap().get(
+					JobSubmissionProperty.INPUT_FILE_URLS.toString());
+			if (StringUtils.isNotBlank(inputs)) {
+				for (String url : inputs.split(",")) {
+					// only local inputs have a size we can find cheaply
+					File f = new File(url.trim());
+					sizes.add(f.exists() ? f.length() : 0L);
+				}
+			}
+			boolean failed = job.getStatus(false) != JobConstants.DONE;
+
+			Entry entry = new Entry(submitTime, fqan, job.getApplication(),
+					job.getApplicationVersion(),
+					Math.max(0, job.getWalltimeInSeconds()), sizes,
+					queueWaitInMs, runtimeInMs, failed);
+
+			synchronized (recordLock) {
+				Writer out = new FileWriter(traceFile, true);
+				try {
+					out.write(entry + "\n");
+				} finally {
+					IOUtils.closeQuietly(out);
+				}
+			}
+		} catch (Exception e) {
+			myLogger.warn("Can't record job " + timed.getJob().getJobname()
+					+ " to trace " + traceFile + ": " + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Writes a complete trace file.
+	 *
+	 * @param file
+	 *            the file (overwritten)
+	 * @param entries
+	 *            the entries
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public static void write(File file, List<Entry> entries)
+			throws IOException {
+		Writer out = new FileWriter(file);
+		try {
+			out.write("# submitTime\tfqan\tapplication\tversion\twalltimeInSeconds\t"
+					+ "inputSizes\tqueueWaitInMs\truntimeInMs\tstatus\n");
+			for (Entry e : entries) {
+				out.write(e + "\n");
+			}
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+}
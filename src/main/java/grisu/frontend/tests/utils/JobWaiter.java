@@ -0,0 +1,257 @@
+package grisu.frontend.tests.utils;
+
+import grisu.control.JobConstants;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.model.dto.GridFile;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Waits for a job to reach a certain condition, polling with exponential
+ * backoff until the condition holds or a deadline is reached.
+ *
+ * Use this instead of fixed {@link Thread#sleep(long)} calls, so tests return
+ * as soon as the backend reacted. How long each wait took is recorded per
+ * condition (see {@link #getTransitionTimes()}).
+ */
+public class JobWaiter {
+
+	/**
+	 * A condition a job can be in.
+	 */
+	public static abstract class Condition {
+
+		private final String description;
+
+		public Condition(String description) {
+			this.description = description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		/**
+		 * Checks the condition. Exceptions are treated as "not (yet)
+		 * satisfied".
+		 *
+		 * @param job
+		 *            the job
+		 * @return whether the condition holds
+		 * @throws Exception
+		 *             if the condition can't be checked right now
+		 */
+		public abstract boolean isSatisfied(GrisuJob job) throws Exception;
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(JobWaiter.class);
+
+	public static final long INITIAL_INTERVAL_IN_MS = 250;
+	public static final long MAX_INTERVAL_IN_MS = 10000;
+
+	private static final ConcurrentMap<String, List<Long>> transitionTimes = Maps
+			.newConcurrentMap();
+
+	/**
+	 * Satisfied once the job has been reported active (or finished) by the
+	 * backend for at least the specified time, measured from the first check
+	 * that saw it active. Use a new instance for every wait.
+	 */
+	public static Condition activeFor(final long millis) {
+		return new Condition("active for " + millis + " ms") {
+			private long activeSince = -1;
+
+			@Override
+			public boolean isSatisfied(GrisuJob job) {
+				if (activeSince < 0) {
+					if (job.getStatus(true) < JobConstants.ACTIVE) {
+						return false;
+					}
+					activeSince = System.currentTimeMillis();
+				}
+				return (System.currentTimeMillis() - activeSince) >= millis;
+			}
+		};
+	}
+
+	public static Condition allOf(final Condition... conditions) {
+		return new Condition(StringUtils.join(conditions, " and ")) {
+			@Override
+			public boolean isSatisfied(GrisuJob job) throws Exception {
+				for (Condition c : conditions) {
+					if (!c.isSatisfied(job)) {
+						return false;
+					}
+				}
+				return true;
+			}
+		};
+	}
+
+	public static Condition anyOf(final Condition... conditions) {
+		return new Condition(StringUtils.join(conditions, " or ")) {
+			@Override
+			public boolean isSatisfied(GrisuJob job) throws Exception {
+				for (Condition c : conditions) {
+					if (c.isSatisfied(job)) {
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * The recorded durations (in ms) of all successful waits, by condition.
+	 *
+	 * @return condition description to list of durations
+	 */
+	public static Map<String, List<Long>> getTransitionTimes() {
+		Map<String, List<Long>> result = Maps.newTreeMap();
+		for (String key : transitionTimes.keySet()) {
+			List<Long> times = transitionTimes.get(key);
+			synchronized (times) {
+				result.put(key, Lists.newArrayList(times));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Satisfied once a file with the specified name exists in the job
+	 * directory.
+	 */
+	public static Condition jobDirectoryContains(final String filename) {
+		return new Condition("jobdir contains " + filename) {
+			@Override
+			public boolean isSatisfied(GrisuJob job) throws Exception {
+				GridFile dir = job.listJobDirectory();
+				for (GridFile child : dir.getChildren()) {
+					if (child.getUrl().endsWith("/" + filename)) {
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	private static void record(String condition, long duration) {
+		List<Long> times = transitionTimes.get(condition);
+		if (times == null) {
+			transitionTimes.putIfAbsent(condition,
+					Collections.synchronizedList(Lists.<Long> newArrayList()));
+			times = transitionTimes.get(condition);
+		}
+		times.add(duration);
+	}
+
+	/**
+	 * Satisfied once {@link GrisuJob#getStatusString(boolean)} (with refresh)
+	 * returns the specified status.
+	 */
+	public static Condition statusIs(final String status) {
+		return new Condition("status is " + status) {
+			@Override
+			public boolean isSatisfied(GrisuJob job) {
+				return status.equals(job.getStatusString(true));
+			}
+		};
+	}
+
+	/**
+	 * Satisfied once the stdout of the job contains the specified text.
+	 */
+	public static Condition stdoutContains(final String text) {
+		return new Condition("stdout contains " + text) {
+			@Override
+			public boolean isSatisfied(GrisuJob job) {
+				return StringUtils.contains(job.getStdOutContent(), text);
+			}
+		};
+	}
+
+	/**
+	 * Polls the job until the condition is satisfied or the timeout is
+	 * reached.
+	 *
+	 * The poll interval starts at {@link #INITIAL_INTERVAL_IN_MS} and doubles
+	 * after every unsuccessful check, up to {@link #MAX_INTERVAL_IN_MS}.
+	 *
+	 * @param job
+	 *            the job
+	 * @param condition
+	 *            the condition to wait for
+	 * @param timeoutInSeconds
+	 *            the maximum time to wait
+	 * @return whether the condition was satisfied before the timeout
+	 * @throws InterruptedException
+	 *             if the waiting thread gets interrupted
+	 */
+	public static boolean waitFor(GrisuJob job, Condition condition,
+			int timeoutInSeconds) throws InterruptedException {
+
+		long start = System.currentTimeMillis();
+		long deadline = start + (timeoutInSeconds * 1000L);
+		long interval = INITIAL_INTERVAL_IN_MS;
+
+		try {
+			return poll(job, condition, timeoutInSeconds, start, deadline,
+					interval);
+		} finally {
+			// how long the backend took is not the middleware's time
+			TimingHistory.recordPhase(Phase.WAIT, System.currentTimeMillis()
+					- start);
+		}
+	}
+
+	private static boolean poll(GrisuJob job, Condition condition,
+			int timeoutInSeconds, long start, long deadline, long interval)
+			throws InterruptedException {
+		while (true) {
+			boolean satisfied = false;
+			try {
+				satisfied = condition.isSatisfied(job);
+			} catch (Exception e) {
+				myLogger.debug("Can't check condition '" + condition + "': "
+						+ e.getLocalizedMessage());
+			}
+
+			long now = System.currentTimeMillis();
+			if (satisfied) {
+				long duration = now - start;
+				record(condition.getDescription(), duration);
+				myLogger.debug("Job " + job.getJobname() + ": '" + condition
+						+ "' after " + duration + " ms");
+				return true;
+			}
+			if (now >= deadline) {
+				myLogger.warn("Job " + job.getJobname() + ": '" + condition
+						+ "' not reached after " + timeoutInSeconds
+						+ " seconds");
+				return false;
+			}
+
+			Thread.sleep(Math.min(interval, deadline - now));
+			interval = Math.min(interval * 2, MAX_INTERVAL_IN_MS);
+		}
+	}
+
+}
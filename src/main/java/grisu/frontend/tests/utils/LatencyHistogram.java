@@ -0,0 +1,107 @@
+package grisu.frontend.tests.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A thread-safe collection of latency samples (in milliseconds) that can
+ * report percentiles.
+ *
+ * By default all samples are kept, which is fine for the number of jobs an
+ * integration or load test run creates. For long runs (e.g. the soak mode of
+ * AllocationSoak) a histogram can be bounded: it then keeps a uniform random
+ * sample (reservoir) of at most maxSamples values, allocated up front, so
+ * the memory it uses doesn't grow with the run. Count, mean and max stay
+ * exact, percentiles are estimated from the reservoir.
+ */
+public class LatencyHistogram {
+
+	private final int maxSamples;
+	private final Random random;
+	private long[] samples;
+	// samples kept
+	private int size = 0;
+	// samples recorded
+	private int count = 0;
+	private long max = 0;
+	private double total = 0;
+
+	public LatencyHistogram() {
+		this(0);
+	}
+
+	/**
+	 * @param maxSamples
+	 *            the number of samples to keep at most, or 0 to keep all
+	 */
+	public LatencyHistogram(int maxSamples) {
+		this.maxSamples = Math.max(0, maxSamples);
+		if (this.maxSamples > 0) {
+			this.samples = new long[this.maxSamples];
+			this.random = new Random();
+		} else {
+			this.samples = new long[64];
+			this.random = null;
+		}
+	}
+
+	public synchronized int getCount() {
+		return count;
+	}
+
+	public synchronized long getMax() {
+		return max;
+	}
+
+	public synchronized double getMean() {
+		if (count == 0) {
+			return 0;
+		}
+		return total / count;
+	}
+
+	/**
+	 * Calculates a percentile using the nearest-rank method.
+	 *
+	 * @param percentile
+	 *            the percentile (0-100)
+	 * @return the value at the percentile, or 0 if there are no samples
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if (size == 0) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(samples, size);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil((percentile / 100.0) * size);
+		return sorted[Math.max(0, Math.min(size, rank) - 1)];
+	}
+
+	public synchronized void record(long value) {
+		count++;
+		total += value;
+		max = Math.max(max, value);
+		if (maxSamples <= 0) {
+			if (size == samples.length) {
+				samples = Arrays.copyOf(samples, size * 2);
+			}
+			samples[size++] = value;
+		} else if (size < maxSamples) {
+			samples[size++] = value;
+		} else {
+			// every sample recorded so far is kept with the same probability
+			int i = random.nextInt(count);
+			if (i < maxSamples) {
+				samples[i] = value;
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("n=%d p50=%d p90=%d p99=%d max=%d", count,
+				getPercentile(50), getPercentile(90), getPercentile(99),
+				getMax());
+	}
+
+}
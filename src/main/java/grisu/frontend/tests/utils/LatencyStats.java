@@ -0,0 +1,71 @@
+package grisu.frontend.tests.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Collects per-backend, per-phase latency histograms for the whole run.
+ *
+ * The histograms are printed when the JVM shuts down. They are bounded by
+ * {@link TestConfig#getHistogramMaxSamples()}.
+ */
+public class LatencyStats {
+
+	private static final ConcurrentMap<String, ConcurrentMap<Phase, LatencyHistogram>> histograms = Maps
+			.newConcurrentMap();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread("latency-report") {
+			@Override
+			public void run() {
+				if (!histograms.isEmpty()) {
+					System.out.println(getReport());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the histogram for a backend and phase, creating it if
+	 * necessary.
+	 */
+	public static LatencyHistogram getHistogram(String backend, Phase phase) {
+		ConcurrentMap<Phase, LatencyHistogram> phases = histograms
+				.get(backend);
+		if (phases == null) {
+			histograms.putIfAbsent(backend,
+					Maps.<Phase, LatencyHistogram> newConcurrentMap());
+			phases = histograms.get(backend);
+		}
+		LatencyHistogram h = phases.get(phase);
+		if (h == null) {
+			phases.putIfAbsent(phase, new LatencyHistogram(TestConfig
+					.getTestConfig().getHistogramMaxSamples()));
+			h = phases.get(phase);
+		}
+		return h;
+	}
+
+	public static String getReport() {
+		StringBuffer report = new StringBuffer("Job lifecycle latencies (ms):\n");
+		for (String backend : Sets.newTreeSet(histograms.keySet())) {
+			Map<Phase, LatencyHistogram> phases = histograms.get(backend);
+			for (Phase phase : Phase.values()) {
+				LatencyHistogram h = phases.get(phase);
+				if (h != null) {
+					report.append(String.format("\t%-12s %-10s %s%n", backend,
+							phase, h));
+				}
+			}
+		}
+		return report.toString();
+	}
+
+	public static void record(String backend, Phase phase, long duration) {
+		getHistogram(backend, phase).record(duration);
+	}
+
+}
@@ -0,0 +1,371 @@
+package grisu.frontend.tests.utils;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.Parameterized.Parameters;
+import org.junit.runners.Suite;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.MultipleFailureException;
+import org.junit.runners.model.RunnerScheduler;
+import org.junit.runners.model.Statement;
+import org.junit.runners.model.TestClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A replacement for JUnit's {@link org.junit.runners.Parameterized} runner
+ * that runs every parameter set (which, in this suite, is one backend) on its
+ * own worker thread.
+ *
+ * The test class has to provide a <code>public static</code> method annotated
+ * with {@link Parameters}. The first element of each parameter set is used as
+ * the name of the backend, so results are reported as
+ * <code>testMethod[backend]</code>. Static methods annotated with
+ * {@link BeforeBackend} / {@link AfterBackend} are run on the worker thread of
+ * their backend, with the same arguments as the constructor, so setup and
+ * teardown of one backend can't interfere with another one.
+ *
+ * Backends are run one after the other if
+ * {@link TestConfig#isParallelBackends()} returns false. If
+ * {@link TestConfig#isParallelTests()} returns true, the tests for one backend
+ * are run concurrently as well, which requires every test to use its own
+ * jobname (see {@link TestConfig#createJobname(String)}).
+ *
+ * If sharding is enabled (see {@link ShardPlan}), only the tests (test method
+ * x backend) assigned to the current shard are run, and their results are
+ * appended to the shard's report (see {@link ShardReport}).
+ *
+ * The durations of passed tests, and of the job phases they went through, are
+ * appended to the {@link TimingHistory}; tests whose duration without the
+ * queue and execution phases, or whose {@link TimingHistory#GATED_PHASES},
+ * are significantly slower than in previous runs fail.
+ */
+public class ParallelParameterized extends Suite {
+
+	private static class BackendRunner extends BlockJUnit4ClassRunner {
+
+		private final Object[] parameters;
+		private final String backend;
+
+		BackendRunner(Class<?> type, Object[] parameters)
+				throws InitializationError {
+			super(type);
+			this.parameters = parameters;
+			this.backend = String.valueOf(parameters[0]);
+			if (TestConfig.getTestConfig().isParallelTests()) {
+				setScheduler(new ThreadPerChildScheduler(type.getSimpleName()
+						+ "-" + backend));
+			}
+		}
+
+		@Override
+		protected Statement classBlock(final RunNotifier notifier) {
+			final Statement children = childrenInvoker(notifier);
+			return new Statement() {
+				@Override
+				public void evaluate() throws Throwable {
+					long start = System.currentTimeMillis();
+					myLogger.info("Starting tests for backend: " + backend);
+					List<Throwable> errors = Lists.newArrayList();
+					try {
+						invokeAll(BeforeBackend.class);
+						children.evaluate();
+					} catch (Throwable t) {
+						errors.add(t);
+					} finally {
+						// a failing teardown must not hide the original failure
+						try {
+							invokeAll(AfterBackend.class);
+						} catch (Throwable t) {
+							errors.add(t);
+						}
+						myLogger.info("Finished tests for backend "
+								+ backend + " in "
+								+ (System.currentTimeMillis() - start) + " ms");
+					}
+					MultipleFailureException.assertEmpty(errors);
+				}
+			};
+		}
+
+		@Override
+		protected Statement methodInvoker(final FrameworkMethod method,
+				Object test) {
+			final Statement invoker = super.methodInvoker(method, test);
+			return new Statement() {
+				@Override
+				public void evaluate() throws Throwable {
+					String test = getTestClass().getName() + "."
+							+ testName(method);
+					TimingHistory.startTest(test);
+					long start = System.currentTimeMillis();
+					Throwable failure = null;
+					long duration;
+					Map<Phase, Long> phases;
+					try {
+						invoker.evaluate();
+					} catch (Throwable t) {
+						failure = t;
+					} finally {
+						duration = System.currentTimeMillis() - start;
+						phases = TimingHistory.stopTest();
+					}
+					if (isPassed(method, failure)) {
+						checkTimings(test, duration, phases);
+					}
+					if (failure != null) {
+						// an expected exception is handled by the statement
+						// around this one
+						throw failure;
+					}
+				}
+			};
+		}
+
+		@Override
+		public Object createTest() throws Exception {
+			return getTestClass().getOnlyConstructor().newInstance(parameters);
+		}
+
+		/**
+		 * Records the durations of a passed test and fails it if it's a
+		 * regression. Durations that are regressions are marked, so they
+		 * don't become part of the baseline.
+		 */
+		private void checkTimings(String test, long duration,
+				Map<Phase, Long> phases) {
+
+			TestConfig config = TestConfig.getTestConfig();
+			TimingHistory history = TimingHistory.getDefault();
+
+			Map<String, Long> durations = Maps.newLinkedHashMap();
+			durations.put(test, duration);
+			long net = duration;
+			for (Phase phase : phases.keySet()) {
+				durations.put(test + "/" + phase, phases.get(phase));
+				if (TimingHistory.BACKEND_PHASES.contains(phase)) {
+					net -= phases.get(phase);
+				}
+			}
+			durations.put(test + TimingHistory.NET_SUFFIX, Math.max(0, net));
+
+			List<String> gated = Lists.newArrayList(test
+					+ TimingHistory.NET_SUFFIX);
+			for (Phase phase : TimingHistory.GATED_PHASES) {
+				if (phases.containsKey(phase)) {
+					gated.add(test + "/" + phase);
+				}
+			}
+			List<String> regressions = Lists.newArrayList();
+			Set<String> regressed = Sets.newHashSet();
+			for (String key : gated) {
+				String regression = history.check(key, durations.get(key),
+						config.getRegressionMinSamples(),
+						config.getRegressionThresholdSigma(),
+						config.getRegressionMinFactor());
+				if (regression != null) {
+					regressions.add(regression);
+					regressed.add(key);
+				}
+			}
+			history.record(durations, regressed);
+
+			if (!regressions.isEmpty()) {
+				String msg = "Performance regression: "
+						+ StringUtils.join(regressions, "; ");
+				if (config.isRegressionGate()) {
+					throw new AssertionError(msg);
+				}
+				myLogger.warn(msg);
+			}
+		}
+
+		/**
+		 * Whether a test passed, taking {@link Test#expected()} into account,
+		 * which is only checked by the statement around the method invoker.
+		 */
+		private boolean isPassed(FrameworkMethod method, Throwable failure) {
+			Test annotation = method.getAnnotation(Test.class);
+			Class<? extends Throwable> expected = (annotation == null) ? Test.None.class
+					: annotation.expected();
+			if (failure == null) {
+				return expected == Test.None.class;
+			}
+			return expected.isInstance(failure);
+		}
+
+		@Override
+		protected String getName() {
+			return "[" + backend + "]";
+		}
+
+		private void invokeAll(Class<? extends Annotation> annotation)
+				throws Throwable {
+			for (FrameworkMethod m : getTestClass().getAnnotatedMethods(
+					annotation)) {
+				m.invokeExplosively(null, parameters);
+			}
+		}
+
+		@Override
+		protected String testName(FrameworkMethod method) {
+			return method.getName() + "[" + backend + "]";
+		}
+
+		@Override
+		protected void validateConstructor(List<Throwable> errors) {
+			validateOnlyOneConstructor(errors);
+		}
+	}
+
+	private static class ThreadPerChildScheduler implements RunnerScheduler {
+
+		private final ExecutorService executor;
+
+		ThreadPerChildScheduler(String name) {
+			this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+					.setNameFormat(name + "-%d").build());
+		}
+
+		public void finished() {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		public void schedule(Runnable childStatement) {
+			executor.submit(childStatement);
+		}
+	}
+
+	private static class ShardFilter extends Filter {
+
+		private final Set<String> tests;
+
+		ShardFilter(Set<String> tests) {
+			this.tests = tests;
+		}
+
+		@Override
+		public String describe() {
+			return "tests of shard " + ShardPlan.getDefault().getIndex();
+		}
+
+		@Override
+		public boolean shouldRun(Description description) {
+			if (description.isTest()) {
+				return tests.contains(ShardReport.getTestName(description));
+			}
+			for (Description child : description.getChildren()) {
+				if (shouldRun(child)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(ParallelParameterized.class);
+
+	private static List<Runner> createRunners(Class<?> klass)
+			throws Throwable {
+
+		List<Runner> runners = Lists.newArrayList();
+		TestClass testClass = new TestClass(klass);
+		Collection<Object[]> allParameters = getParameters(testClass);
+
+		Filter shard = null;
+		ShardPlan plan = ShardPlan.getDefault();
+		if (plan != null) {
+			List<String> tests = Lists.newArrayList();
+			for (Object[] parameters : allParameters) {
+				for (FrameworkMethod m : testClass.getAnnotatedMethods(Test.class)) {
+					tests.add(klass.getName() + "." + m.getName() + "["
+							+ parameters[0] + "]");
+				}
+			}
+			shard = new ShardFilter(plan.assign(tests));
+		}
+
+		for (Object[] parameters : allParameters) {
+			BackendRunner runner = new BackendRunner(klass, parameters);
+			if (shard != null) {
+				try {
+					runner.filter(shard);
+				} catch (NoTestsRemainException e) {
+					continue;
+				}
+			}
+			runners.add(runner);
+		}
+		return runners;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Collection<Object[]> getParameters(TestClass klass)
+			throws Throwable {
+
+		for (FrameworkMethod m : klass.getAnnotatedMethods(Parameters.class)) {
+			int modifiers = m.getMethod().getModifiers();
+			if (Modifier.isStatic(modifiers) && Modifier.isPublic(modifiers)) {
+				return (Collection<Object[]>) m.invokeExplosively(null);
+			}
+		}
+		throw new Exception("No public static parameters method on class "
+				+ klass.getName());
+	}
+
+	/**
+	 * Only called reflectively. Do not use programmatically.
+	 */
+	public ParallelParameterized(Class<?> klass) throws Throwable {
+		super(klass, createRunners(klass));
+		if (TestConfig.getTestConfig().isParallelBackends()) {
+			setScheduler(new ThreadPerChildScheduler(klass.getSimpleName()));
+		}
+	}
+
+	@Override
+	public void run(RunNotifier notifier) {
+		ShardPlan plan = ShardPlan.getDefault();
+		if (plan == null) {
+			super.run(notifier);
+			return;
+		}
+		ShardReport report = new ShardReport(plan.getIndex());
+		notifier.addListener(report);
+		try {
+			super.run(notifier);
+		} finally {
+			notifier.removeListener(report);
+			report.write();
+		}
+	}
+
+}
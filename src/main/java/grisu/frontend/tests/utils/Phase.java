@@ -0,0 +1,30 @@
+package grisu.frontend.tests.utils;
+
+/**
+ * The phases of a job lifecycle that are timed by {@link TimedJob}.
+ */
+public enum Phase {
+
+	/**
+	 * building the GrisuJob before createJob. Only AllocationSoak measures
+	 * it; tests build their jobs before they hand them to a TimedJob, so
+	 * their statistics and timing history have no construction phase.
+	 */
+	CONSTRUCTION,
+	/** {@link grisu.frontend.model.job.GrisuJob#createJob(String)} */
+	CREATE,
+	/** submitJob, including staging of input files */
+	SUBMIT,
+	/** from end of submission until the job is active */
+	QUEUE,
+	/** from the job being active until it is finished */
+	EXECUTION,
+	/** fetching stdout/stderr */
+	OUTPUT,
+	/**
+	 * waiting for a job condition with {@link JobWaiter}, e.g. for a kill to
+	 * take effect
+	 */
+	WAIT
+
+}
@@ -0,0 +1,290 @@
+package grisu.frontend.tests.utils;
+
+import grisu.control.ServiceInterface;
+import grisu.frontend.control.login.LoginException;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A pool of logged in sessions (serviceinterfaces) for one backend, so that
+ * concurrent workers don't all share a single serviceinterface.
+ *
+ * Sessions are logged in lazily, up to the pool size. A worker checks out a
+ * {@link Session}, uses its serviceinterface, and returns it with
+ * {@link #release(Session)}. A session that was idle for longer than the
+ * health check interval is checked with a cheap call (<code>getFqans</code>)
+ * before it is handed out, and logged in again if that fails. A worker that
+ * sees a session expire can also hand it back with
+ * {@link #invalidate(Session)}.
+ *
+ * The pool records how long workers wait for a session and how much of the
+ * available session time was used.
+ */
+public class SessionPool {
+
+	/**
+	 * Logs sessions in and out.
+	 */
+	public interface SessionFactory {
+
+		ServiceInterface login() throws LoginException;
+
+		/**
+		 * Logs out a session that was logged in by {@link #login()}, when it
+		 * is closed or logged in again.
+		 */
+		void logout(ServiceInterface si);
+	}
+
+	/**
+	 * A checked out session.
+	 */
+	public static class Session {
+
+		private final int id;
+		private ServiceInterface si;
+		private long lastChecked;
+		private long checkedOut;
+
+		private Session(int id, ServiceInterface si) {
+			this.id = id;
+			this.si = si;
+			this.lastChecked = System.currentTimeMillis();
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public ServiceInterface getServiceInterface() {
+			return si;
+		}
+
+		@Override
+		public String toString() {
+			return "session-" + id;
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(SessionPool.class);
+
+	private final String backend;
+	private final int size;
+	private final long healthCheckIntervalInMs;
+	private final SessionFactory factory;
+
+	private final BlockingQueue<Session> idle = new LinkedBlockingQueue<Session>();
+	private int sessions = 0;
+
+	private final LatencyHistogram waitTime = new LatencyHistogram();
+	private final AtomicInteger inUse = new AtomicInteger();
+	private final AtomicInteger peakInUse = new AtomicInteger();
+	private final AtomicInteger relogins = new AtomicInteger();
+	private final AtomicLong busyTimeInMs = new AtomicLong();
+	private final long created = System.currentTimeMillis();
+
+	public SessionPool(String backend, int size,
+			int healthCheckIntervalInSeconds, SessionFactory factory) {
+		this.backend = backend;
+		this.size = size;
+		this.healthCheckIntervalInMs = healthCheckIntervalInSeconds * 1000L;
+		this.factory = factory;
+	}
+
+	/**
+	 * Checks out a session, logging in a new one if the pool is not full yet.
+	 *
+	 * @param timeoutInSeconds
+	 *            how long to wait for a session if all are in use
+	 * @return the session
+	 * @throws LoginException
+	 *             if a new session can't be logged in
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public Session checkout(int timeoutInSeconds) throws LoginException,
+			InterruptedException {
+
+		long start = System.currentTimeMillis();
+		Session session = idle.poll();
+
+		if (session == null) {
+			int id = -1;
+			synchronized (this) {
+				if (sessions < size) {
+					id = sessions++;
+				}
+			}
+			if (id >= 0) {
+				session = login(id);
+			} else {
+				session = idle.poll(timeoutInSeconds, TimeUnit.SECONDS);
+				if (session == null) {
+					throw new RuntimeException("No session for backend "
+							+ backend + " available after "
+							+ timeoutInSeconds + " seconds.");
+				}
+			}
+		}
+
+		try {
+			checkHealth(session);
+		} catch (LoginException e) {
+			idle.offer(session);
+			throw e;
+		}
+
+		long now = System.currentTimeMillis();
+		waitTime.record(now - start);
+		session.checkedOut = now;
+		int current = inUse.incrementAndGet();
+		synchronized (peakInUse) {
+			peakInUse.set(Math.max(peakInUse.get(), current));
+		}
+		return session;
+	}
+
+	private void checkHealth(Session session) throws LoginException {
+		if ((System.currentTimeMillis() - session.lastChecked) < healthCheckIntervalInMs) {
+			return;
+		}
+		try {
+			session.si.getFqans();
+		} catch (Exception e) {
+			myLogger.info("Session " + session + " for backend " + backend
+					+ " expired, logging in again: " + e.getLocalizedMessage());
+			relogin(session);
+		}
+		session.lastChecked = System.currentTimeMillis();
+	}
+
+	/**
+	 * Logs out all sessions that are not checked out.
+	 */
+	public void close() {
+		List<Session> drained = Lists.newArrayList();
+		idle.drainTo(drained);
+		for (Session s : drained) {
+			logout(s);
+		}
+	}
+
+	public String getBackend() {
+		return backend;
+	}
+
+	public int getInUse() {
+		return inUse.get();
+	}
+
+	public int getPeakInUse() {
+		return peakInUse.get();
+	}
+
+	public int getRelogins() {
+		return relogins.get();
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * The fraction of the available session time (pool size times the age of
+	 * the pool) that sessions were checked out, between 0 and 1.
+	 *
+	 * Sessions that are currently checked out are not included.
+	 */
+	public double getUtilization() {
+		long available = size * Math.max(1, System.currentTimeMillis() - created);
+		return busyTimeInMs.get() / (double) available;
+	}
+
+	/**
+	 * How long {@link #checkout(int)} took, including logins.
+	 */
+	public LatencyHistogram getWaitTime() {
+		return waitTime;
+	}
+
+	/**
+	 * Returns a session that turned out to be expired. It is logged in again
+	 * and put back into the pool.
+	 *
+	 * @param session
+	 *            the session
+	 * @throws LoginException
+	 *             if it can't be logged in again
+	 */
+	public void invalidate(Session session) throws LoginException {
+		try {
+			relogin(session);
+			session.lastChecked = System.currentTimeMillis();
+		} finally {
+			release(session);
+		}
+	}
+
+	private Session login(int id) throws LoginException {
+		boolean success = false;
+		try {
+			Session session = new Session(id, factory.login());
+			myLogger.debug("Logged in " + session + " for backend " + backend);
+			success = true;
+			return session;
+		} finally {
+			if (!success) {
+				synchronized (this) {
+					sessions--;
+				}
+			}
+		}
+	}
+
+	private void logout(Session session) {
+		try {
+			factory.logout(session.si);
+		} catch (Exception e) {
+			myLogger.debug("Can't logout " + session + ": "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	private void relogin(Session session) throws LoginException {
+		logout(session);
+		session.si = factory.login();
+		relogins.incrementAndGet();
+	}
+
+	/**
+	 * Returns a session to the pool.
+	 *
+	 * @param session
+	 *            the session
+	 */
+	public void release(Session session) {
+		busyTimeInMs.addAndGet(System.currentTimeMillis() - session.checkedOut);
+		inUse.decrementAndGet();
+		idle.offer(session);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%s: size=%d in use=%d peak=%d relogins=%d utilization=%.2f wait (ms): %s",
+				backend, size, getInUse(), getPeakInUse(), getRelogins(),
+				getUtilization(), waitTime);
+	}
+
+}
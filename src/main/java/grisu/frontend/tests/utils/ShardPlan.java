@@ -0,0 +1,225 @@
+package grisu.frontend.tests.utils;
+
+import grisu.settings.Environment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Splits the (test method x backend) matrix of a test class into shards, so
+ * the suite can be run by several JVMs or CI nodes.
+ *
+ * Sharding is enabled by the system properties {@value #COUNT_PROPERTY} (the
+ * number of shards) and {@value #INDEX_PROPERTY} (the shard to run, starting
+ * at 0), e.g. <code>mvn test -Dgrisu.shard.count=4 -Dgrisu.shard.index=2</code>.
+ *
+ * Tests are assigned with the longest-processing-time-first heuristic: sorted
+ * by their duration in previous runs (from {@link #getTimingsFile()},
+ * unknown tests count as the median known duration), every test goes to the
+ * shard with the least total duration so far, ties broken by name. The
+ * load of every shard is kept across the test classes of the JVM (by the
+ * {@link #getDefault()} plan), so the totals of the whole suite are
+ * balanced, not only those of every class. The assignment only depends on
+ * the test names, the order of the test classes and the timings file, so
+ * every shard computes the same plan, as long as all shards see the same
+ * backends, run the classes in the same order and use the same timings
+ * file.
+ *
+ * Each shard writes its results to {@link #getReportFile(int)};
+ * {@link ShardReportMerger} merges them and updates the timings. Results are
+ * appended, so the report directory has to be emptied before a new run (the
+ * default one is removed by <code>mvn clean</code>).
+ */
+public class ShardPlan {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(ShardPlan.class);
+
+	public static final String INDEX_PROPERTY = "grisu.shard.index";
+	public static final String COUNT_PROPERTY = "grisu.shard.count";
+	public static final String TIMINGS_PROPERTY = "grisu.shard.timings";
+	public static final String REPORT_DIR_PROPERTY = "grisu.shard.reportDir";
+
+	public static final long DEFAULT_DURATION_IN_MS = 60000;
+
+	private static ShardPlan defaultPlan = null;
+
+	/**
+	 * The plan configured by system properties.
+	 *
+	 * @return the plan, or null if sharding is not enabled
+	 */
+	public static synchronized ShardPlan getDefault() {
+		int count = Integer.getInteger(COUNT_PROPERTY, 1);
+		if (count <= 1) {
+			return null;
+		}
+		if (defaultPlan == null) {
+			int index = Integer.getInteger(INDEX_PROPERTY, 0);
+			if ((index < 0) || (index >= count)) {
+				throw new IllegalArgumentException("Invalid shard index "
+						+ index + " for " + count + " shards.");
+			}
+			defaultPlan = new ShardPlan(index, count,
+					loadTimings(getTimingsFile()));
+			myLogger.info("Running shard " + index + " of " + count);
+		}
+		return defaultPlan;
+	}
+
+	/**
+	 * The directory the shards write their results to.
+	 */
+	public static File getReportDirectory() {
+		return new File(System.getProperty(REPORT_DIR_PROPERTY, new File(
+				"target", "shards").getPath()));
+	}
+
+	public static File getReportFile(int index) {
+		return new File(getReportDirectory(), "shard-" + index
+				+ "-results.tsv");
+	}
+
+	/**
+	 * The file with the durations of previous runs, test name to
+	 * milliseconds.
+	 */
+	public static File getTimingsFile() {
+		String path = System.getProperty(TIMINGS_PROPERTY);
+		if (path != null) {
+			return new File(path);
+		}
+		return new File(Environment.getGrisuDirectory(),
+				"integrationtest-shard-timings.properties");
+	}
+
+	public static Properties loadTimings(File file) {
+		Properties timings = new Properties();
+		if (file.exists()) {
+			InputStream in = null;
+			try {
+				in = new FileInputStream(file);
+				timings.load(in);
+			} catch (IOException e) {
+				myLogger.warn("Can't read shard timings " + file
+						+ ", balancing by count: " + e.getLocalizedMessage());
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+		return timings;
+	}
+
+	public static void storeTimings(File file, Properties timings)
+			throws IOException {
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			timings.store(out, "Test durations in ms, used to balance shards");
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	private final int index;
+	private final int count;
+	private final Properties timings;
+
+	/** the estimated duration of every shard, over all assigned classes */
+	private final long[] load;
+
+	public ShardPlan(int index, int count, Properties timings) {
+		this.index = index;
+		this.count = count;
+		this.timings = timings;
+		this.load = new long[count];
+	}
+
+	/**
+	 * Assigns tests to shards, on top of the tests assigned by previous calls.
+	 *
+	 * @param tests
+	 *            the names of all tests of a test class, in the format
+	 *            <code>class.method[backend]</code>
+	 * @return the tests of this shard
+	 */
+	public synchronized Set<String> assign(List<String> tests) {
+
+		final Map<String, Long> durations = Maps.newHashMap();
+		long fallback = getMedianDuration();
+		for (String t : tests) {
+			String known = timings.getProperty(t);
+			durations.put(t, (known != null) ? Long.parseLong(known)
+					: fallback);
+		}
+
+		List<String> sorted = Lists.newArrayList(tests);
+		Collections.sort(sorted, new Comparator<String>() {
+			public int compare(String o1, String o2) {
+				int c = durations.get(o2).compareTo(durations.get(o1));
+				return (c != 0) ? c : o1.compareTo(o2);
+			}
+		});
+
+		Set<String> mine = Sets.newHashSet();
+		for (String t : sorted) {
+			int shard = 0;
+			for (int i = 1; i < count; i++) {
+				if (load[i] < load[shard]) {
+					shard = i;
+				}
+			}
+			load[shard] += durations.get(t);
+			if (shard == index) {
+				mine.add(t);
+			}
+		}
+		myLogger.info("Shard " + index + " runs " + mine.size() + " of "
+				+ tests.size() + " tests, estimated " + load[index]
+				+ " ms in total");
+		return mine;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	private long getMedianDuration() {
+		List<Long> known = Lists.newArrayList();
+		for (String key : timings.stringPropertyNames()) {
+			try {
+				known.add(Long.parseLong(timings.getProperty(key)));
+			} catch (NumberFormatException e) {
+				// ignore invalid entry
+			}
+		}
+		if (known.isEmpty()) {
+			return DEFAULT_DURATION_IN_MS;
+		}
+		Collections.sort(known);
+		return known.get(known.size() / 2);
+	}
+
+}
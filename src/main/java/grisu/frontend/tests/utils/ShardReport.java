@@ -0,0 +1,121 @@
+package grisu.frontend.tests.utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Records the result and duration of every test of a shard, and appends them
+ * to the shard's result file (see {@link ShardPlan#getReportFile(int)}) once
+ * a test class is finished.
+ *
+ * One line per test, tab separated:
+ * <code>test status durationInMs shard message</code>, with status one of
+ * {@value #PASSED}, {@value #FAILED}, {@value #SKIPPED} and
+ * {@value #IGNORED}.
+ */
+public class ShardReport extends RunListener {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(ShardReport.class);
+
+	public static final String PASSED = "PASSED";
+	public static final String FAILED = "FAILED";
+	public static final String SKIPPED = "SKIPPED";
+	public static final String IGNORED = "IGNORED";
+
+	/**
+	 * The name a test is planned and reported by.
+	 */
+	public static String getTestName(Description description) {
+		return description.getClassName() + "." + description.getMethodName();
+	}
+
+	private final int shard;
+	private final Map<String, Long> started = Maps.newConcurrentMap();
+	private final Map<String, String> lines = Maps.newConcurrentMap();
+	private final Map<String, String> failures = Maps.newConcurrentMap();
+
+	public ShardReport(int shard) {
+		this.shard = shard;
+	}
+
+	private void finish(String test, String status, String message) {
+		Long start = started.remove(test);
+		long duration = (start == null) ? 0 : System.currentTimeMillis()
+				- start;
+		String msg = StringUtils.isBlank(message) ? "-" : message.replaceAll(
+				"\\s+", " ");
+		lines.put(test, StringUtils.join(new Object[] { test, status,
+				duration, shard, msg }, '\t'));
+	}
+
+	@Override
+	public void testAssumptionFailure(Failure failure) {
+		failures.put(getTestName(failure.getDescription()), SKIPPED + "\t"
+				+ failure.getMessage());
+	}
+
+	@Override
+	public void testFailure(Failure failure) {
+		failures.put(getTestName(failure.getDescription()), FAILED + "\t"
+				+ failure.getMessage());
+	}
+
+	@Override
+	public void testFinished(Description description) {
+		String test = getTestName(description);
+		String failure = failures.remove(test);
+		if (failure == null) {
+			finish(test, PASSED, null);
+		} else {
+			finish(test, StringUtils.substringBefore(failure, "\t"),
+					StringUtils.substringAfter(failure, "\t"));
+		}
+	}
+
+	@Override
+	public void testIgnored(Description description) {
+		lines.put(getTestName(description), StringUtils.join(new Object[] {
+				getTestName(description), IGNORED, 0, shard, "-" }, '\t'));
+	}
+
+	@Override
+	public void testStarted(Description description) {
+		started.put(getTestName(description), System.currentTimeMillis());
+	}
+
+	/**
+	 * Appends the recorded results to the shard's result file.
+	 */
+	public synchronized void write() {
+		File file = ShardPlan.getReportFile(shard);
+		Writer out = null;
+		try {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			out = new FileWriter(file, true);
+			for (String line : lines.values()) {
+				out.write(line + "\n");
+			}
+			lines.clear();
+		} catch (IOException e) {
+			myLogger.warn("Can't write shard report " + file + ": "
+					+ e.getLocalizedMessage());
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+package grisu.frontend.tests.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Merges the result files of all shards (see {@link ShardReport}) into one
+ * report, and updates the timings file the shards are balanced with.
+ *
+ * Prints the totals per status, the run time of every shard (to check the
+ * balance), all failures, and tests that were run by more than one shard
+ * (which happens if the shards saw different backends). New durations are
+ * averaged with the old ones, so one slow run doesn't move a test around too
+ * much.
+ *
+ * Usage:
+ * <code>ShardReportMerger [reportDir] [timingsFile]</code>, defaulting to
+ * {@link ShardPlan#getReportDirectory()} and
+ * {@link ShardPlan#getTimingsFile()}. The merged results are written to
+ * <code>merged-results.tsv</code> in the report directory.
+ */
+public class ShardReportMerger {
+
+	public static void main(String[] args) throws Exception {
+
+		File dir = (args.length > 0) ? new File(args[0]) : ShardPlan
+				.getReportDirectory();
+		File timingsFile = (args.length > 1) ? new File(args[1]) : ShardPlan
+				.getTimingsFile();
+
+		ShardReportMerger merger = new ShardReportMerger();
+		File[] files = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File d, String name) {
+				return name.startsWith("shard-") && name.endsWith("-results.tsv");
+			}
+		});
+		if ((files == null) || (files.length == 0)) {
+			System.err.println("No shard results in " + dir);
+			System.exit(1);
+		}
+		for (File f : files) {
+			merger.read(f);
+		}
+
+		merger.write(new File(dir, "merged-results.tsv"));
+		Properties timings = ShardPlan.loadTimings(timingsFile);
+		merger.updateTimings(timings);
+		ShardPlan.storeTimings(timingsFile, timings);
+
+		System.out.println(merger.getReport());
+		System.exit(merger.getCount(ShardReport.FAILED) > 0 ? 1 : 0);
+	}
+
+	// test -> line fields
+	private final Map<String, String[]> results = Maps.newTreeMap();
+	private final List<String> duplicates = Lists.newArrayList();
+	private final Map<String, Long> shardTimes = Maps.newTreeMap();
+
+	public int getCount(String status) {
+		int count = 0;
+		for (String[] r : results.values()) {
+			if (status.equals(r[1])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public String getReport() {
+		StringBuffer report = new StringBuffer();
+		report.append(String.format(
+				"%d tests: %d passed, %d failed, %d skipped, %d ignored%n",
+				results.size(), getCount(ShardReport.PASSED),
+				getCount(ShardReport.FAILED), getCount(ShardReport.SKIPPED),
+				getCount(ShardReport.IGNORED)));
+		for (String shard : shardTimes.keySet()) {
+			report.append(String.format("\tshard %s: %d ms%n", shard,
+					shardTimes.get(shard)));
+		}
+		for (String[] r : results.values()) {
+			if (ShardReport.FAILED.equals(r[1])) {
+				report.append("\tFAILED ").append(r[0]).append(": ")
+						.append(r[4]).append("\n");
+			}
+		}
+		for (String d : duplicates) {
+			report.append("\tran in more than one shard: ").append(d)
+					.append("\n");
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Reads the results of one shard.
+	 */
+	public void read(File file) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] r = line.split("\t", 5);
+				if (r.length != 5) {
+					continue;
+				}
+				if (results.containsKey(r[0])) {
+					duplicates.add(r[0]);
+				}
+				results.put(r[0], r);
+				Long time = shardTimes.get(r[3]);
+				shardTimes.put(r[3], ((time == null) ? 0 : time)
+						+ Long.parseLong(r[2]));
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Averages the durations of passed and failed tests into the timings.
+	 */
+	public void updateTimings(Properties timings) {
+		for (String[] r : results.values()) {
+			if (!ShardReport.PASSED.equals(r[1])
+					&& !ShardReport.FAILED.equals(r[1])) {
+				continue;
+			}
+			long duration = Long.parseLong(r[2]);
+			String old = timings.getProperty(r[0]);
+			if (StringUtils.isNotBlank(old)) {
+				duration = (duration + Long.parseLong(old)) / 2;
+			}
+			timings.setProperty(r[0], Long.toString(duration));
+		}
+	}
+
+	public void write(File file) throws IOException {
+		Writer out = new FileWriter(file);
+		try {
+			for (String[] r : results.values()) {
+				out.write(StringUtils.join(r, '\t') + "\n");
+			}
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package grisu.frontend.tests.utils;
+
+import grisu.model.FileManager;
+import grisu.settings.Environment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Records checksums of the input fixtures that were uploaded, so setup can
+ * skip uploads of files that are already there.
+ *
+ * A remote file is considered up to date if the manifest has the same MD5
+ * checksum and size as the local file for that url, and the remote file
+ * still exists with that size and checksum. The checksum is computed from
+ * the copy in the local grisu cache, which is only downloaded again if the
+ * remote file changed. Otherwise it is uploaded again and its content is
+ * verified the same way.
+ *
+ * The manifest is kept per url, not per backend: backends that are set up
+ * in parallel usually share the remote input directory, and a backend that
+ * uploaded the file again would replace it while the tests of another one
+ * use it. Staging of the same url is serialized, so only the first backend
+ * uploads it. The manifest file is replaced atomically, so concurrent test
+ * runs (e.g. shards) never read a partially written one.
+ */
+public class StagingManifest {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(StagingManifest.class);
+
+	public static final File DEFAULT_MANIFEST_FILE = new File(
+			Environment.getGrisuDirectory(), "integrationtest-staging.properties");
+
+	private static StagingManifest defaultManifest = null;
+
+	public static synchronized StagingManifest getDefault() {
+		if (defaultManifest == null) {
+			defaultManifest = new StagingManifest(DEFAULT_MANIFEST_FILE);
+		}
+		return defaultManifest;
+	}
+
+	private static final String CHECKSUM_SUFFIX = ".md5";
+	private static final String SIZE_SUFFIX = ".size";
+
+	private final File manifestFile;
+	private final Properties entries = new Properties();
+
+	// one lock per remote url
+	private final ConcurrentMap<String, Object> locks = Maps
+			.newConcurrentMap();
+
+	public StagingManifest(File manifestFile) {
+		this.manifestFile = manifestFile;
+		if (manifestFile.exists()) {
+			InputStream in = null;
+			try {
+				in = new FileInputStream(manifestFile);
+				entries.load(in);
+			} catch (IOException e) {
+				myLogger.warn("Can't read staging manifest " + manifestFile
+						+ ", ignoring it: " + e.getLocalizedMessage());
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+	}
+
+	/**
+	 * Makes sure a local file exists with identical content in the remote
+	 * directory.
+	 *
+	 * @param backend
+	 *            the backend name, for logging
+	 * @param fm
+	 *            the filemanager for the backend
+	 * @param localFile
+	 *            the path of the local file
+	 * @param remoteParent
+	 *            the url of the remote directory
+	 * @return true if the file was uploaded, false if the remote copy was
+	 *         already up to date
+	 * @throws Exception
+	 *             if the file can't be uploaded or verified
+	 */
+	public boolean ensureStaged(String backend, FileManager fm,
+			String localFile, String remoteParent) throws Exception {
+
+		File local = new File(localFile);
+		String remote = remoteParent + "/" + local.getName();
+
+		locks.putIfAbsent(remote, new Object());
+		synchronized (locks.get(remote)) {
+			String checksum = InputGenerator.md5(local);
+			String size = Long.toString(local.length());
+
+			if (checksum.equals(getEntry(remote + CHECKSUM_SUFFIX))
+					&& size.equals(getEntry(remote + SIZE_SUFFIX))
+					&& fm.fileExists(remote)
+					&& (fm.getFileSize(remote) == local.length())
+					&& checksum.equals(InputGenerator.md5(fm.downloadFile(remote)))) {
+				myLogger.info("Remote file " + remote + " for backend "
+						+ backend + " is up to date, not uploading it.");
+				return false;
+			}
+
+			myLogger.info("Uploading " + local + " to " + remote
+					+ " on backend " + backend);
+			removeEntry(remote);
+			fm.deleteFile(remote);
+			fm.cp(localFile, remoteParent, true);
+
+			String remoteChecksum = InputGenerator.md5(fm.downloadFile(remote));
+			if (!checksum.equals(remoteChecksum)
+					|| (fm.getFileSize(remote) != local.length())) {
+				throw new RuntimeException("Can't setup remote input file "
+						+ remote + ": content differs");
+			}
+
+			putEntry(remote, checksum, size);
+			return true;
+		}
+	}
+
+	private synchronized String getEntry(String key) {
+		return entries.getProperty(key);
+	}
+
+	private synchronized void putEntry(String remote, String checksum,
+			String size) {
+		entries.setProperty(remote + CHECKSUM_SUFFIX, checksum);
+		entries.setProperty(remote + SIZE_SUFFIX, size);
+		save();
+	}
+
+	private synchronized void removeEntry(String remote) {
+		boolean removed = entries.remove(remote + CHECKSUM_SUFFIX) != null;
+		removed = (entries.remove(remote + SIZE_SUFFIX) != null) || removed;
+		if (removed) {
+			save();
+		}
+	}
+
+	private void save() {
+		File tmp = null;
+		OutputStream out = null;
+		try {
+			manifestFile.getParentFile().mkdirs();
+			tmp = File.createTempFile(manifestFile.getName(), ".tmp",
+					manifestFile.getParentFile());
+			out = new FileOutputStream(tmp);
+			entries.store(out, "Checksums of staged integration test inputs");
+			out.close();
+			Files.move(tmp.toPath(), manifestFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			myLogger.warn("Can't write staging manifest " + manifestFile
+					+ ": " + e.getLocalizedMessage());
+		} finally {
+			IOUtils.closeQuietly(out);
+			if ((tmp != null) && tmp.exists()) {
+				tmp.delete();
+			}
+		}
+	}
+
+}
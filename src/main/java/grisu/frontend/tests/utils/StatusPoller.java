@@ -0,0 +1,350 @@
+package grisu.frontend.tests.utils;
+
+import grisu.control.JobConstants;
+import grisu.control.ServiceInterface;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.model.dto.DtoJob;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Tracks the status of many in-flight jobs of one {@link ServiceInterface}
+ * with a single poll loop, instead of every waiter polling its own job.
+ *
+ * Every round refreshes all registered jobs (no matter how many waiters they
+ * have) with a single <code>getCurrentJobs</code> call to the backend. Only
+ * jobs that are missing from its answer, or all of them if the call fails,
+ * are polled one by one, using a small pool of {@link #BATCH_THREADS}
+ * threads. The interval
+ * between rounds adapts: it drops to {@link #MIN_INTERVAL_IN_MS} when a round
+ * saw a status change and backs off by 50% per quiet round, up to
+ * {@link #MAX_INTERVAL_IN_MS}.
+ *
+ * Waiters get a future that completes with the status once the job reached
+ * (or passed) the requested state. It fails instead if the job doesn't
+ * exist, finished without reaching the state, couldn't be polled or had an
+ * unknown status for {@link #MAX_FAILED_POLLS} (or the waiter's own limit)
+ * polls in a row, or if the timeout of the waiter passed.
+ *
+ * Jobs are dropped once they have no waiters left. When no job is left the
+ * poll thread stops and the poller is forgotten; the next registration
+ * starts it again.
+ */
+public class StatusPoller {
+
+	private static class Tracked {
+		final GrisuJob job;
+		final List<Waiter> waiters = Lists.newArrayList();
+		int lastStatus = Integer.MIN_VALUE;
+		long lastPoll = System.currentTimeMillis();
+		int failedPolls = 0;
+
+		Tracked(GrisuJob job) {
+			this.job = job;
+		}
+	}
+
+	private static class Waiter {
+		final int targetState;
+		final long deadline;
+		final int maxFailedPolls;
+		final SettableFuture<Integer> future = SettableFuture.create();
+
+		Waiter(int targetState, long deadline, int maxFailedPolls) {
+			this.targetState = targetState;
+			this.deadline = deadline;
+			this.maxFailedPolls = maxFailedPolls;
+		}
+	}
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(StatusPoller.class);
+
+	public static final long MIN_INTERVAL_IN_MS = 1000;
+	public static final long MAX_INTERVAL_IN_MS = 30000;
+	public static final int BATCH_THREADS = 4;
+
+	/**
+	 * How many polls in a row may fail, or return an unknown status (e.g.
+	 * while the job managers restart), before the waiters of a job fail.
+	 */
+	public static final int MAX_FAILED_POLLS = 10;
+
+	private static final Map<ServiceInterface, StatusPoller> pollers = new IdentityHashMap<ServiceInterface, StatusPoller>();
+
+	/**
+	 * Returns the poller for a serviceinterface, starting it if necessary.
+	 */
+	public static synchronized StatusPoller get(ServiceInterface si) {
+		StatusPoller poller = pollers.get(si);
+		if (poller == null) {
+			poller = new StatusPoller(si);
+			pollers.put(si, poller);
+		}
+		return poller;
+	}
+
+	private final ServiceInterface si;
+	private final Map<String, Tracked> jobs = Maps.newLinkedHashMap();
+	private ExecutorService batch = null;
+	private Thread loop = null;
+
+	private final AtomicLong statusCalls = new AtomicLong();
+	private final LatencyHistogram notificationLag = new LatencyHistogram();
+	private long interval = MIN_INTERVAL_IN_MS;
+
+	private StatusPoller(ServiceInterface si) {
+		this.si = si;
+	}
+
+	private void fail(Tracked t, Waiter w, Exception e) {
+		w.future.setException(e);
+		t.waiters.remove(w);
+	}
+
+	/**
+	 * The upper bound of the notification lag: time between the poll that
+	 * detected a waiter's state and the previous poll of that job, in ms.
+	 */
+	public LatencyHistogram getNotificationLag() {
+		return notificationLag;
+	}
+
+	public long getStatusCalls() {
+		return statusCalls.get();
+	}
+
+	private void poll(Tracked t) {
+		long now = System.currentTimeMillis();
+		int status;
+		String error = null;
+		try {
+			status = t.job.getStatus(true);
+		} catch (Exception e) {
+			status = JobConstants.UNDEFINED;
+			error = e.getLocalizedMessage();
+			myLogger.warn("Can't get status of job " + t.job.getJobname()
+					+ ": " + error);
+		}
+		statusCalls.incrementAndGet();
+		update(t, status, error, now);
+	}
+
+	/**
+	 * Gets the status of all jobs of the backend with one call.
+	 *
+	 * @return jobname to status, or null if the call failed
+	 */
+	private Map<String, Integer> pollAll() {
+		statusCalls.incrementAndGet();
+		try {
+			Map<String, Integer> result = Maps.newHashMap();
+			for (DtoJob job : si.getCurrentJobs(true).getAllJobs()) {
+				result.put(job.jobname(), job.getStatus());
+			}
+			return result;
+		} catch (Exception e) {
+			myLogger.warn("Can't get status of all jobs, polling them one by one: "
+					+ e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	private void update(Tracked t, int status, String error, long now) {
+		synchronized (this) {
+			if (status != t.lastStatus) {
+				interval = MIN_INTERVAL_IN_MS;
+			}
+			t.lastStatus = status;
+			// negative states are not part of the job lifecycle
+			t.failedPolls = (status < 0) ? (t.failedPolls + 1) : 0;
+
+			for (Waiter w : Lists.newArrayList(t.waiters)) {
+				if (status == JobConstants.NO_SUCH_JOB) {
+					fail(t, w, new RuntimeException("No such job: "
+							+ t.job.getJobname()));
+				} else if (status >= w.targetState) {
+					notificationLag.record(now - t.lastPoll);
+					w.future.set(status);
+					t.waiters.remove(w);
+				} else if (status >= JobConstants.FINISHED_EITHER_WAY) {
+					fail(t, w, new RuntimeException("Job "
+							+ t.job.getJobname() + " finished with status "
+							+ JobConstants.translateStatus(status)
+							+ " without reaching "
+							+ JobConstants.translateStatus(w.targetState)));
+				} else if (t.failedPolls >= w.maxFailedPolls) {
+					fail(t, w, new RuntimeException("No valid status for job "
+							+ t.job.getJobname() + " in " + t.failedPolls
+							+ " polls"
+							+ ((error == null) ? "" : ", last error: " + error)));
+				} else if (now > w.deadline) {
+					fail(t, w, new TimeoutException("Job "
+							+ t.job.getJobname() + " didn't reach "
+							+ JobConstants.translateStatus(w.targetState)
+							+ " in time, status: "
+							+ JobConstants.translateStatus(status)));
+				}
+			}
+			t.lastPoll = now;
+			if (t.waiters.isEmpty()) {
+				jobs.remove(t.job.getJobname());
+			}
+		}
+	}
+
+	/**
+	 * Registers a waiter for a job, with
+	 * {@link TestConfig#getMaxTimeoutInSeconds()} as timeout.
+	 *
+	 * @see #register(GrisuJob, int, long)
+	 */
+	public ListenableFuture<Integer> register(GrisuJob job, int targetState) {
+		return register(job, targetState, TestConfig.getTestConfig()
+				.getMaxTimeoutInSeconds() * 1000L);
+	}
+
+	/**
+	 * Registers a waiter for a job.
+	 *
+	 * @param job
+	 *            the job
+	 * @param targetState
+	 *            the (minimum) state to wait for, e.g.
+	 *            {@link grisu.control.JobConstants#ACTIVE}
+	 * @param timeoutInMs
+	 *            how long to wait for the state
+	 * @return a future that completes with the job status once the state is
+	 *         reached, or fails if it can't be reached
+	 */
+	public ListenableFuture<Integer> register(GrisuJob job,
+			int targetState, long timeoutInMs) {
+		return register(job, targetState, timeoutInMs, MAX_FAILED_POLLS);
+	}
+
+	/**
+	 * Registers a waiter for a job.
+	 *
+	 * @param job
+	 *            the job
+	 * @param targetState
+	 *            the (minimum) state to wait for
+	 * @param timeoutInMs
+	 *            how long to wait for the state
+	 * @param maxFailedPolls
+	 *            how many polls in a row may fail or return an unknown
+	 *            status, e.g. {@link Integer#MAX_VALUE} to wait out outages
+	 *            until the timeout
+	 * @return a future that completes with the job status once the state is
+	 *         reached, or fails if it can't be reached
+	 */
+	public synchronized ListenableFuture<Integer> register(GrisuJob job,
+			int targetState, long timeoutInMs, int maxFailedPolls) {
+		Tracked t = jobs.get(job.getJobname());
+		if (t == null) {
+			t = new Tracked(job);
+			jobs.put(job.getJobname(), t);
+		}
+		Waiter w = new Waiter(targetState, System.currentTimeMillis()
+				+ timeoutInMs, maxFailedPolls);
+		t.waiters.add(w);
+		interval = MIN_INTERVAL_IN_MS;
+
+		if (loop == null) {
+			batch = Executors.newFixedThreadPool(BATCH_THREADS,
+					new ThreadFactoryBuilder().setNameFormat(
+							"status-poller-%d").setDaemon(true).build());
+			loop = new Thread("status-poller") {
+				@Override
+				public void run() {
+					runLoop();
+				}
+			};
+			loop.setDaemon(true);
+			loop.start();
+			synchronized (StatusPoller.class) {
+				// in case the loop stopped after get() returned this poller
+				if (!pollers.containsKey(si)) {
+					pollers.put(si, this);
+				}
+			}
+		}
+		notifyAll();
+		return w.future;
+	}
+
+	private void runLoop() {
+		while (true) {
+			List<Callable<Object>> round = Lists.newArrayList();
+			long sleep;
+			ExecutorService executor;
+			List<Tracked> tracked;
+			synchronized (this) {
+				if (jobs.isEmpty()) {
+					// nothing to wait for, stop until the next registration
+					loop = null;
+					batch.shutdown();
+					synchronized (StatusPoller.class) {
+						if (pollers.get(si) == this) {
+							pollers.remove(si);
+						}
+					}
+					return;
+				}
+				executor = batch;
+				tracked = Lists.newArrayList(jobs.values());
+			}
+
+			Map<String, Integer> statuses = pollAll();
+			long now = System.currentTimeMillis();
+			for (final Tracked t : tracked) {
+				Integer status = (statuses == null) ? null : statuses.get(t.job
+						.getJobname());
+				if (status != null) {
+					update(t, status, null, now);
+				} else {
+					round.add(new Callable<Object>() {
+						public Object call() {
+							poll(t);
+							return null;
+						}
+					});
+				}
+			}
+			try {
+				if (!round.isEmpty()) {
+					executor.invokeAll(round);
+				}
+				synchronized (this) {
+					// back off, polls that saw a change reset the interval
+					sleep = interval;
+					interval = Math.min(MAX_INTERVAL_IN_MS, (interval * 3) / 2);
+				}
+				Thread.sleep(sleep);
+			} catch (InterruptedException e) {
+				synchronized (this) {
+					loop = null;
+					batch.shutdownNow();
+				}
+				return;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+package grisu.frontend.tests.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.apache.commons.io.IOUtils;
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+
+/**
+ * Hamcrest matchers that check the content of an {@link InputStream} (e.g.
+ * the stdout of a job, see {@link JobOutput}) in constant memory.
+ *
+ * Matching reads the stream only as far as necessary and closes it
+ * afterwards, so every assertion needs a freshly opened stream.
+ */
+public class StreamMatchers {
+
+	private static abstract class StreamMatcher extends BaseMatcher<InputStream> {
+
+		public boolean matches(Object item) {
+			if (!(item instanceof InputStream)) {
+				return false;
+			}
+			Reader reader = new BufferedReader(new InputStreamReader(
+					(InputStream) item));
+			try {
+				return matches(reader);
+			} catch (IOException e) {
+				throw new RuntimeException("Can't read stream: "
+						+ e.getLocalizedMessage(), e);
+			} finally {
+				IOUtils.closeQuietly(reader);
+			}
+		}
+
+		protected abstract boolean matches(Reader reader) throws IOException;
+	}
+
+	/**
+	 * Matches a stream whose content contains the text. Stops reading at the
+	 * first occurrence.
+	 */
+	public static Matcher<InputStream> streamContainsString(final String text) {
+
+		// Knuth-Morris-Pratt failure function
+		final int[] failure = new int[text.length()];
+		for (int i = 1, k = 0; i < text.length(); i++) {
+			while ((k > 0) && (text.charAt(i) != text.charAt(k))) {
+				k = failure[k - 1];
+			}
+			if (text.charAt(i) == text.charAt(k)) {
+				k++;
+			}
+			failure[i] = k;
+		}
+
+		return new StreamMatcher() {
+			public void describeTo(Description description) {
+				description.appendText("a stream containing ").appendValue(
+						text);
+			}
+
+			@Override
+			protected boolean matches(Reader reader) throws IOException {
+				if (text.length() == 0) {
+					return true;
+				}
+				int k = 0;
+				int c;
+				while ((c = reader.read()) != -1) {
+					while ((k > 0) && (c != text.charAt(k))) {
+						k = failure[k - 1];
+					}
+					if (c == text.charAt(k)) {
+						k++;
+					}
+					if (k == text.length()) {
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Matches a stream whose content, with leading and trailing whitespace
+	 * removed, equals the (trimmed) text. Stops reading at the first
+	 * difference.
+	 */
+	public static Matcher<InputStream> streamEqualsTrimmed(String text) {
+
+		final String expected = text.trim();
+
+		return new StreamMatcher() {
+			public void describeTo(Description description) {
+				description.appendText("a stream with trimmed content ")
+						.appendValue(expected);
+			}
+
+			@Override
+			protected boolean matches(Reader reader) throws IOException {
+				int pos = 0;
+				// whitespace that was read but can't be matched yet, because
+				// it's only known to be interior once something follows
+				StringBuffer pending = new StringBuffer();
+				boolean overflow = false;
+				int c;
+				while ((c = reader.read()) != -1) {
+					if (Character.isWhitespace(c)) {
+						if (pos == 0) {
+							continue; // leading whitespace
+						}
+						if (pending.length() < (expected.length() - pos)) {
+							pending.append((char) c);
+						} else {
+							overflow = true;
+						}
+						continue;
+					}
+					if (pending.length() > 0) {
+						if (overflow
+								|| !expected.startsWith(pending.toString(),
+										pos)) {
+							return false;
+						}
+						pos += pending.length();
+						pending.setLength(0);
+					}
+					if ((pos >= expected.length())
+							|| (c != expected.charAt(pos))) {
+						return false;
+					}
+					pos++;
+				}
+				return pos == expected.length();
+			}
+		};
+	}
+
+	/**
+	 * Matches a stream that only contains whitespace. Stops reading at the
+	 * first other character.
+	 */
+	public static Matcher<InputStream> streamIsBlank() {
+		return new StreamMatcher() {
+			public void describeTo(Description description) {
+				description.appendText("a blank stream");
+			}
+
+			@Override
+			protected boolean matches(Reader reader) throws IOException {
+				int c;
+				while ((c = reader.read()) != -1) {
+					if (!Character.isWhitespace(c)) {
+						return false;
+					}
+				}
+				return true;
+			}
+		};
+	}
+
+}
@@ -3,7 +3,10 @@ package grisu.frontend.tests.utils;
 import grisu.control.ServiceInterface;
 import grisu.frontend.control.login.LoginException;
 import grisu.frontend.control.login.LoginManager;
+import grisu.frontend.tests.standin.QueueModel;
+import grisu.frontend.tests.standin.StandInBackend;
 import grisu.jcommons.constants.GridEnvironment;
+import grisu.model.info.dto.DtoStringList;
 import grisu.settings.Environment;
 import grith.jgrith.cred.AbstractCred;
 import grith.jgrith.credential.CredentialLoader;
@@ -11,23 +14,57 @@ import groovy.util.ConfigObject;
 import groovy.util.ConfigSlurper;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class TestConfig {
 
 	public static final Logger myLogger = LoggerFactory
 			.getLogger(TestConfig.class);
 
+	/**
+	 * The system property that restricts the backends to run against, comma
+	 * separated.
+	 */
+	public static final String SELECTED_BACKENDS_PROPERTY = "grisu.backends";
+
 	private static TestConfig testconfig = null;
 
+	private static Map<String, List<String>> createDefaultSnapshotApplications() {
+		Map<String, List<String>> apps = Maps.newTreeMap();
+		apps.put("generic", Lists.<String> newArrayList());
+		apps.put("UnixCommands", Lists.newArrayList("5.97"));
+		apps.put("Python", Lists.newArrayList("2.7"));
+		return apps;
+	}
+
 	private static TestConfig create() throws Exception {
 
 		File testConfigFile = new File(Environment.getGrisuDirectory(), "integrationtest.groovy");
@@ -54,8 +91,11 @@ public class TestConfig {
 
 	public static synchronized TestConfig getTestConfig() {
 		if (testconfig == null) {
+			long start = System.currentTimeMillis();
 			try {
 				testconfig = create();
+				myLogger.info("Loaded test config in "
+						+ (System.currentTimeMillis() - start) + " ms");
 			} catch (Exception e) {
 				throw new RuntimeException("Can't create testconfig: "
 						+ e.getLocalizedMessage(), e);
@@ -77,25 +117,181 @@ public class TestConfig {
 	private final String pythonFileName = "pytest.py";
 	private final String killmeScriptName = "kill_me.sh";
 	private final String killJobManagerScriptName = "kill_job_managers.sh";
+	private final String largeOutputScriptName = "large_output.sh";
+	private final String unbundleScriptName = "unbundle.sh";
+	private int largeOutputSizeInMb = 4;
 	private String myproxyServer;
+	private boolean parallelBackends = true;
+	private int loginTimeoutInSeconds = 120;
+	private boolean parallelTests = false;
+	private int sweepMaxConcurrency = 16;
+	private int sweepJobsPerWorker = 5;
+	private QueueModel standInQueueModel = null;
+	private InfoSystemSnapshot standInSnapshot = null;
+	private boolean cacheInfoSystem = false;
+	private int infoSystemCacheTtlInSeconds = 300;
+	private int infoSystemCacheSize = 1000;
+	private int bulkFetchThreads = 8;
+	private List<Integer> stagingBenchmarkSizesInMb = Lists.newArrayList(1,
+			100, 1024);
+	private int simulatedUsers = 1000;
+	private int jobsPerSimulatedUser = 3;
+	private boolean pooledSessions = false;
+	private int sessionPoolSize = 4;
+	private int sessionHealthCheckIntervalInSeconds = 60;
+	private String traceRecordFile = null;
+	private int chaosConcurrency = 4;
+	private int chaosDurationInSeconds = 600;
+	private int chaosKillIntervalInSeconds = 120;
+	private boolean bundledStaging = false;
+	private List<Integer> smallInputCounts = Lists.newArrayList(1, 10, 100,
+			500);
+	private int smallInputSizeInBytes = 4096;
+	private String infoSystemSnapshotFile = null;
+	private Map<String, List<String>> snapshotApplications = createDefaultSnapshotApplications();
+	private String timingHistoryFile = null;
+	private boolean regressionGate = true;
+	private int regressionBaselineSize = 20;
+	private int regressionAcceptAfter = 3;
+	private int regressionMinSamples = 5;
+	private double regressionThresholdSigma = 3.0;
+	private double regressionMinFactor = 1.5;
+	private boolean adaptiveTimeouts = true;
+	private double timeoutPercentile = 99;
+	private double timeoutFactor = 3.0;
+	private int minTimeoutInSeconds = 120;
+	private int maxTimeoutInSeconds = 3600;
+	private int maxPlatformUserThreads = 200;
+	private boolean profileAllocations = false;
+	private int allocationSoakJobs = 500;
+	private int allocationCheckpointInterval = 50;
+	private int histogramMaxSamples = 0;
 
 
 	private AbstractCred cred = null;
 
-	private Map<String, ServiceInterface> backendCache = null;
+	private final ConcurrentMap<String, Future<ServiceInterface>> logins = Maps
+			.newConcurrentMap();
+	private final ExecutorService loginExecutor = Executors
+			.newCachedThreadPool(new ThreadFactoryBuilder()
+					.setNameFormat("login-%d").setDaemon(true).build());
+	private final ScheduledExecutorService loginTimer = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("login-timer").setDaemon(true).build());
+	private final Map<String, ServiceInterface> cachingBackends = Maps
+			.newTreeMap();
+	private final Map<String, Long> loginLatencies = Maps.newConcurrentMap();
+	private final Map<String, SessionPool> sessionPools = Maps.newTreeMap();
+
+	private final String runId = Long.toString(System.currentTimeMillis(), 36)
+			+ Integer.toString(new Random().nextInt(36 * 36 * 36), 36);
+	private final AtomicInteger jobCounter = new AtomicInteger();
 
 	public TestConfig() {
 	}
 
+	/**
+	 * Kills and cleans a job, ignoring the error if the job doesn't exist
+	 * (anymore).
+	 *
+	 * @param si
+	 *            the serviceinterface the job was created on
+	 * @param jobname
+	 *            the name of the job
+	 */
+	public void cleanJob(ServiceInterface si, String jobname) {
+		try {
+			si.kill(jobname, true);
+		} catch (Exception e) {
+			myLogger.debug("Can't clean job " + jobname + ": "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Creates a jobname that is unique for this test run and test invocation.
+	 *
+	 * The name starts with {@link #getJobnamePrefix()}, so jobs of concurrent
+	 * runs or tests against the same backend never collide and each run only
+	 * ever cleans up its own jobs.
+	 *
+	 * @param testName
+	 *            the name of the test (invalid characters are replaced)
+	 * @return the jobname
+	 */
+	public String createJobname(String testName) {
+		return getJobnamePrefix() + "_"
+				+ testName.replaceAll("[^A-Za-z0-9]", "_") + "_"
+				+ jobCounter.incrementAndGet();
+	}
+
+	/**
+	 * The number of jobs between two measurements of the retained heap in
+	 * AllocationSoak.
+	 */
+	public int getAllocationCheckpointInterval() {
+		return allocationCheckpointInterval;
+	}
+
+	/**
+	 * The number of jobs AllocationSoak runs, if no duration is specified.
+	 */
+	public int getAllocationSoakJobs() {
+		return allocationSoakJobs;
+	}
+
 	public Set<String> getBackends() {
 		return backends;
 	}
 
+	/**
+	 * The number of concurrent downloads used by {@link BulkFetcher}.
+	 */
+	public int getBulkFetchThreads() {
+		return bulkFetchThreads;
+	}
+
+	/**
+	 * Returns the serviceinterface for a backend, wrapped in a
+	 * {@link CachingServiceInterface}.
+	 *
+	 * @param backend
+	 *            the backend name
+	 * @return the caching serviceinterface
+	 * @throws RuntimeException
+	 *             if the login to the backend fails
+	 */
+	public ServiceInterface getCachingServiceInterface(String backend) {
+		ServiceInterface si = getServiceInterface(backend);
+		if (CachingServiceInterface.get(si) != null) {
+			return si;
+		}
+		synchronized (cachingBackends) {
+			if (!cachingBackends.containsKey(backend)) {
+				cachingBackends.put(backend, CachingServiceInterface.wrap(si,
+						infoSystemCacheTtlInSeconds, infoSystemCacheSize));
+			}
+			return cachingBackends.get(backend);
+		}
+	}
+
+	public int getChaosConcurrency() {
+		return chaosConcurrency;
+	}
+
+	public int getChaosDurationInSeconds() {
+		return chaosDurationInSeconds;
+	}
+
+	public int getChaosKillIntervalInSeconds() {
+		return chaosKillIntervalInSeconds;
+	}
+
 	public String getContent() {
 		return content;
 	}
 
-	public AbstractCred getCredential() {
+	public synchronized AbstractCred getCredential() {
 		if (cred == null) {
 
 			try {
@@ -128,6 +324,35 @@ public class TestConfig {
 		return gsiftpRemoteInputParent;
 	}
 
+	/**
+	 * The number of samples the histograms of {@link LatencyStats} and
+	 * {@link AllocationProfiler} keep at most (see {@link LatencyHistogram}).
+	 *
+	 * @return the bound, or 0 (default) to keep all samples
+	 */
+	public int getHistogramMaxSamples() {
+		return histogramMaxSamples;
+	}
+
+	/**
+	 * An info-system snapshot (see {@link InfoSystemSnapshot}) for the
+	 * stand-in backend to serve its queues from.
+	 *
+	 * @return the path of the snapshot, or null (default) for the default
+	 *         queue model
+	 */
+	public String getInfoSystemSnapshotFile() {
+		return infoSystemSnapshotFile;
+	}
+
+	public int getInfoSystemCacheSize() {
+		return infoSystemCacheSize;
+	}
+
+	public int getInfoSystemCacheTtlInSeconds() {
+		return infoSystemCacheTtlInSeconds;
+	}
+
 	public String getInputFile() {
 		return Input.getFile(inputFileName);
 	}
@@ -148,6 +373,15 @@ public class TestConfig {
 		return jobname;
 	}
 
+	/**
+	 * The prefix all jobnames of this test run start with.
+	 *
+	 * @return the configured jobname plus an id unique to this run
+	 */
+	public String getJobnamePrefix() {
+		return jobname + "_" + runId;
+	}
+
 	public String getKillJobManagersScript() {
 		return Input.getFile(this.killJobManagerScriptName);
 	}
@@ -180,37 +414,619 @@ public class TestConfig {
 		return pythonFileName;
 	}
 
-	public synchronized Map<String, ServiceInterface> getServiceInterfaces() {
+	public int getJobsPerSimulatedUser() {
+		return jobsPerSimulatedUser;
+	}
 
-		if (backendCache == null) {
-			backendCache = Maps.newTreeMap();
+	public String getLargeOutputScript() {
+		return Input.getFile(this.largeOutputScriptName);
+	}
 
-			for (String b : backends) {
+	public String getLargeOutputScriptName() {
+		return this.largeOutputScriptName;
+	}
 
-				ServiceInterface si = null;
+	/**
+	 * The size of the output the large output test writes to stdout. Small by
+	 * default, so the suite stays quick; set it to a few hundred MB to
+	 * actually test large downloads.
+	 *
+	 * @return the size in MB (default: 4)
+	 */
+	public int getLargeOutputSizeInMb() {
+		return largeOutputSizeInMb;
+	}
 
-				try {
-					si = LoginManager.login(b, getCredential(), false);
-					backendCache.put(b, si);
-				} catch (LoginException e) {
-					throw new RuntimeException("Can't login: "
-							+ e.getLocalizedMessage(), e);
-				}
+	/**
+	 * The time it took to login to each backend, in milliseconds.
+	 *
+	 * Only contains backends that were logged into so far (see
+	 * {@link #getServiceInterface(String)}).
+	 *
+	 * @return backend name to login latency
+	 */
+	public Map<String, Long> getLoginLatencies() {
+		return Collections.unmodifiableMap(new TreeMap<String, Long>(
+				loginLatencies));
+	}
+
+	public int getLoginTimeoutInSeconds() {
+		return loginTimeoutInSeconds;
+	}
+
+	/**
+	 * The backends to run against.
+	 *
+	 * @return the configured backends or, if the system property
+	 *         {@value #SELECTED_BACKENDS_PROPERTY} is set (comma separated),
+	 *         the configured backends it names
+	 */
+	public Set<String> getSelectedBackends() {
+		String selected = System.getProperty(SELECTED_BACKENDS_PROPERTY);
+		if (StringUtils.isBlank(selected)) {
+			return Sets.newTreeSet(backends);
+		}
+		Set<String> result = Sets.newTreeSet();
+		for (String b : selected.split(",")) {
+			b = b.trim();
+			if (b.length() == 0) {
+				continue;
+			}
+			if (!backends.contains(b)) {
+				myLogger.warn("Selected backend " + b
+						+ " is not configured, ignoring it.");
+				continue;
 			}
+			result.add(b);
+		}
+		if (result.isEmpty()) {
+			throw new RuntimeException("None of the selected backends is configured: "
+					+ selected);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the serviceinterface for a backend, logging in on first use.
+	 *
+	 * Every backend is logged into at most once; concurrent callers wait for
+	 * the same login, and a failed login is not retried. A caller that gives
+	 * up waiting doesn't abort the login for the others, only
+	 * {@link #getLoginTimeoutInSeconds()} after the login started it is
+	 * cancelled.
+	 *
+	 * @param backend
+	 *            the backend name
+	 * @return the logged in serviceinterface
+	 * @throws RuntimeException
+	 *             if the login fails or doesn't finish within
+	 *             {@link #getLoginTimeoutInSeconds()}
+	 */
+	public ServiceInterface getServiceInterface(String backend) {
+		return getServiceInterface(backend, System.currentTimeMillis()
+				+ (loginTimeoutInSeconds * 1000L));
+	}
+
+	private ServiceInterface getServiceInterface(String backend,
+			long deadline) {
+		Future<ServiceInterface> login = startLogin(backend);
+		try {
+			return login.get(
+					Math.max(0, deadline - System.currentTimeMillis()),
+					TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// the login is shared, it's only cancelled by startLogin's timer
+			throw new RuntimeException("Login to backend " + backend
+					+ " timed out after " + loginTimeoutInSeconds + " seconds.");
+		} catch (CancellationException e) {
+			throw new RuntimeException("Login to backend " + backend
+					+ " timed out.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Can't login to backend " + backend
+					+ ": " + e.getCause().getLocalizedMessage(), e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while logging in.", e);
+		}
+	}
 
+	/**
+	 * Logs into all selected backends (see {@link #getSelectedBackends()})
+	 * concurrently.
+	 *
+	 * Backends that fail to login or don't respond within
+	 * {@link #getLoginTimeoutInSeconds()} (for all of them together, since
+	 * they log in concurrently) are logged and skipped. Tests should
+	 * use {@link #getServiceInterface(String)} instead, so only the backends
+	 * they actually run against are logged into.
+	 *
+	 * @return backend name to logged in serviceinterface
+	 */
+	public Map<String, ServiceInterface> getServiceInterfaces() {
+
+		Set<String> selected = getSelectedBackends();
+		for (String b : selected) {
+			startLogin(b);
 		}
 
-		return backendCache;
+		long deadline = System.currentTimeMillis()
+				+ (loginTimeoutInSeconds * 1000L);
+		Map<String, ServiceInterface> result = Maps.newTreeMap();
+		for (String b : selected) {
+			try {
+				result.put(b, getServiceInterface(b, deadline));
+			} catch (RuntimeException e) {
+				myLogger.error(e.getLocalizedMessage() + " Skipping it.",
+						e.getCause());
+			}
+		}
+
+		if (result.isEmpty()) {
+			throw new RuntimeException("Can't login to any of the backends: "
+					+ StringUtils.join(selected, ", "));
+		}
+		return result;
+	}
+
+	/**
+	 * The queues the stand-in backend pretends to have.
+	 *
+	 * @return the configured model, the model of
+	 *         {@link #getInfoSystemSnapshotFile()} if set, or
+	 *         {@link QueueModel#createDefault()}
+	 */
+	public synchronized QueueModel getStandInQueueModel() {
+		if (standInQueueModel == null) {
+			InfoSystemSnapshot snapshot = getStandInSnapshot();
+			if (snapshot != null) {
+				standInQueueModel = QueueModel.fromSnapshot(snapshot);
+			} else {
+				standInQueueModel = QueueModel.createDefault();
+			}
+		}
+		return standInQueueModel;
+	}
+
+	/**
+	 * The snapshot the stand-in backend answers <code>findQueues</code> from.
+	 *
+	 * @return the snapshot of {@link #getInfoSystemSnapshotFile()}, or null if
+	 *         no snapshot file is set
+	 */
+	public synchronized InfoSystemSnapshot getStandInSnapshot() {
+		if ((standInSnapshot == null)
+				&& StringUtils.isNotBlank(infoSystemSnapshotFile)) {
+			try {
+				standInSnapshot = InfoSystemSnapshot.read(new File(
+						infoSystemSnapshotFile));
+			} catch (IOException e) {
+				throw new RuntimeException("Can't read info-system snapshot "
+						+ infoSystemSnapshotFile + ": "
+						+ e.getLocalizedMessage(), e);
+			}
+		}
+		return standInSnapshot;
+	}
+
+	public List<Integer> getStagingBenchmarkSizesInMb() {
+		return stagingBenchmarkSizesInMb;
+	}
+
+	public int getSessionHealthCheckIntervalInSeconds() {
+		return sessionHealthCheckIntervalInSeconds;
+	}
+
+	/**
+	 * Returns the session pool for a backend, creating it on first use.
+	 *
+	 * Every session of the pool is a separate login. The stand-in backend
+	 * runs in-process, so all its sessions share the instance from
+	 * {@link #getServiceInterface(String)} (otherwise jobs submitted through one
+	 * session would be invisible to the others), and the pool never logs it
+	 * out, since that would kill the jobs of every session.
+	 *
+	 * @param backend
+	 *            the backend name
+	 * @return the pool
+	 */
+	public synchronized SessionPool getSessionPool(final String backend) {
+		if (!sessionPools.containsKey(backend)) {
+			final AbstractCred credential = StandInBackend.NAME
+					.equals(backend) ? null : getCredential();
+			sessionPools.put(backend, new SessionPool(backend,
+					sessionPoolSize, sessionHealthCheckIntervalInSeconds,
+					new SessionPool.SessionFactory() {
+						public ServiceInterface login() throws LoginException {
+							if (StandInBackend.NAME.equals(backend)) {
+								return getServiceInterface(backend);
+							}
+							return TestConfig.this.login(backend, credential);
+						}
+
+						public void logout(ServiceInterface si) {
+							if (!StandInBackend.NAME.equals(backend)) {
+								si.logout();
+							}
+						}
+					}));
+		}
+		return sessionPools.get(backend);
+	}
+
+	public int getSessionPoolSize() {
+		return sessionPoolSize;
+	}
+
+	public int getSimulatedUsers() {
+		return simulatedUsers;
+	}
+
+	/**
+	 * The number of platform threads simulated users (and replayed jobs) may
+	 * use on JVMs without virtual threads. More users than this run degraded:
+	 * they queue for a thread instead of running concurrently.
+	 */
+	public int getMaxPlatformUserThreads() {
+		return maxPlatformUserThreads;
+	}
+
+	/**
+	 * The upper bound for the deadline of a job wait, and the deadline if
+	 * there are no previous durations (see {@link Watchdog}).
+	 */
+	public int getMaxTimeoutInSeconds() {
+		return maxTimeoutInSeconds;
+	}
+
+	/**
+	 * The lower bound for the deadline of a job wait.
+	 */
+	public int getMinTimeoutInSeconds() {
+		return minTimeoutInSeconds;
+	}
+
+	/**
+	 * After how many regressions of a test in a row the slower durations are
+	 * accepted as its new baseline (see {@link TimingHistory}).
+	 */
+	public int getRegressionAcceptAfter() {
+		return regressionAcceptAfter;
+	}
+
+	/**
+	 * The number of previous samples a test's duration is compared to (see
+	 * {@link TimingHistory}).
+	 */
+	public int getRegressionBaselineSize() {
+		return regressionBaselineSize;
+	}
+
+	/**
+	 * The factor of the baseline mean a duration may always reach without
+	 * being a regression.
+	 */
+	public double getRegressionMinFactor() {
+		return regressionMinFactor;
+	}
+
+	/**
+	 * The number of previous samples needed before a test is checked for
+	 * regressions.
+	 */
+	public int getRegressionMinSamples() {
+		return regressionMinSamples;
+	}
+
+	/**
+	 * The number of standard deviations above the baseline mean a duration may
+	 * reach without being a regression.
+	 */
+	public double getRegressionThresholdSigma() {
+		return regressionThresholdSigma;
+	}
+
+	/**
+	 * The factor the {@link #getTimeoutPercentile()} of previous durations is
+	 * multiplied with to get the deadline of a job wait.
+	 */
+	public double getTimeoutFactor() {
+		return timeoutFactor;
+	}
+
+	/**
+	 * The percentile (0-100) of previous durations a job wait deadline is
+	 * based on.
+	 */
+	public double getTimeoutPercentile() {
+		return timeoutPercentile;
+	}
+
+	/**
+	 * The file test and phase durations are appended to.
+	 *
+	 * @return the configured file, or the default one in the grisu directory
+	 */
+	public File getTimingHistoryFile() {
+		if (StringUtils.isBlank(timingHistoryFile)) {
+			return TimingHistory.getDefaultFile();
+		}
+		return new File(timingHistoryFile);
+	}
+
+	/**
+	 * The file every finished {@link TimedJob} is appended to (see
+	 * {@link JobTrace}).
+	 *
+	 * @return the path of the trace file, or null (default) to not record
+	 */
+	public String getTraceRecordFile() {
+		return traceRecordFile;
+	}
+
+	/**
+	 * The applications {@link InfoSystemSnapshot} captures, each with the
+	 * versions to capture. Versions that aren't captured have no queues in
+	 * the snapshot; by default the versions of
+	 * {@link QueueModel#createDefault()} are captured.
+	 */
+	public Map<String, List<String>> getSnapshotApplications() {
+		return snapshotApplications;
+	}
+
+	public List<Integer> getSmallInputCounts() {
+		return smallInputCounts;
+	}
+
+	public int getSmallInputSizeInBytes() {
+		return smallInputSizeInBytes;
+	}
+
+	public String getUnbundleScript() {
+		return Input.getFile(this.unbundleScriptName);
+	}
+
+	public String getUnbundleScriptName() {
+		return this.unbundleScriptName;
 	}
 
 	public String getSubLoc10minMax() {
 		return subLoc10minMax;
 	}
 
+	/**
+	 * Whether the tests for each backend are run concurrently, each backend
+	 * on its own thread (see {@link ParallelParameterized}).
+	 *
+	 * @return true (default) if backends are tested in parallel
+	 */
+	public boolean isParallelBackends() {
+		return parallelBackends;
+	}
+
+	/**
+	 * The number of jobs every worker of a
+	 * {@link grisu.frontend.tests.load.ConcurrencySweep} level runs, so a
+	 * level with concurrency c runs c times this many jobs.
+	 */
+	public int getSweepJobsPerWorker() {
+		return sweepJobsPerWorker;
+	}
+
+	public int getSweepMaxConcurrency() {
+		return sweepMaxConcurrency;
+	}
+
+	/**
+	 * Whether {@link TimedJob} waits derive their deadline and poll interval
+	 * from previous durations, and abort stuck jobs (see {@link Watchdog}).
+	 * If false, waits poll at the interval the test specifies and never time
+	 * out.
+	 */
+	public boolean isAdaptiveTimeouts() {
+		return adaptiveTimeouts;
+	}
+
+	/**
+	 * Whether load drivers that stage many local inputs bundle them into one
+	 * archive (see {@link BundledStaging}).
+	 *
+	 * @return true if inputs are bundled, default is false
+	 */
+	public boolean isBundledStaging() {
+		return bundledStaging;
+	}
+
+	/**
+	 * Whether {@link #getServiceInterface(String)} hands out serviceinterfaces
+	 * that cache info-system queries (see {@link CachingServiceInterface}).
+	 *
+	 * @return true if info-system answers are cached, default is false
+	 */
+	public boolean isCacheInfoSystem() {
+		return cacheInfoSystem;
+	}
+
+	/**
+	 * Whether load drivers (ConcurrencySweep, UserSimulation) and the job
+	 * submission tests spread their workers over a {@link SessionPool}
+	 * instead of sharing one serviceinterface per backend.
+	 *
+	 * @return true if pooled sessions are used, default is false
+	 */
+	public boolean isPooledSessions() {
+		return pooledSessions;
+	}
+
+	/**
+	 * Whether {@link TimedJob} measures the allocation and GC time of every
+	 * phase (see {@link AllocationProfiler}).
+	 */
+	public boolean isProfileAllocations() {
+		return profileAllocations;
+	}
+
+	/**
+	 * Whether tests fail if they (or their create, submit or output phases)
+	 * are significantly slower than in previous runs (see
+	 * {@link TimingHistory}). Durations are recorded either way.
+	 */
+	public boolean isRegressionGate() {
+		return regressionGate;
+	}
+
+	/**
+	 * Whether a backend was logged into successfully (without logging in).
+	 */
+	public boolean isLoggedIn(String backend) {
+		Future<ServiceInterface> login = logins.get(backend);
+		if ((login == null) || !login.isDone() || login.isCancelled()) {
+			return false;
+		}
+		try {
+			login.get();
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	public boolean isOwnJob(String jobname) {
+		return jobname.startsWith(getJobnamePrefix() + "_");
+	}
+
+	/**
+	 * Whether the tests for one backend are run concurrently (see
+	 * {@link ParallelParameterized}).
+	 *
+	 * @return true if tests are run in parallel, default is false
+	 */
+	public boolean isParallelTests() {
+		return parallelTests;
+	}
+
+	/**
+	 * Kills and cleans all jobs on the backend that were created by this test
+	 * run.
+	 *
+	 * @param si
+	 *            the serviceinterface
+	 */
+	public void killOwnJobs(ServiceInterface si) {
+		DtoStringList allJobnames = si.getAllJobnames(null);
+		if (allJobnames == null) {
+			return;
+		}
+		for (String name : allJobnames.getStringList()) {
+			if (isOwnJob(name)) {
+				cleanJob(si, name);
+			}
+		}
+	}
+
+	/**
+	 * Logs into a single backend.
+	 *
+	 * The backend named {@link StandInBackend#NAME} is created in-process and
+	 * doesn't need a credential.
+	 */
+	private ServiceInterface login(String backend, AbstractCred credential)
+			throws LoginException {
+		if (StandInBackend.NAME.equals(backend)) {
+			return StandInBackend.create(getStandInQueueModel(),
+					getStandInSnapshot());
+		}
+		return LoginManager.login(backend, credential, false);
+	}
+
+	/**
+	 * Starts the login to a backend on the login executor, unless it was
+	 * started already, and cancels it if it doesn't finish within
+	 * {@link #getLoginTimeoutInSeconds()}.
+	 */
+	private Future<ServiceInterface> startLogin(final String backend) {
+		Future<ServiceInterface> login = logins.get(backend);
+		if (login != null) {
+			return login;
+		}
+		FutureTask<ServiceInterface> task = new FutureTask<ServiceInterface>(
+				new Callable<ServiceInterface>() {
+					public ServiceInterface call() throws LoginException {
+						long start = System.currentTimeMillis();
+						AbstractCred credential = StandInBackend.NAME
+								.equals(backend) ? null : getCredential();
+						ServiceInterface si = login(backend, credential);
+						if (cacheInfoSystem) {
+							si = CachingServiceInterface.wrap(si,
+									infoSystemCacheTtlInSeconds,
+									infoSystemCacheSize);
+						}
+						long latency = System.currentTimeMillis() - start;
+						loginLatencies.put(backend, latency);
+						myLogger.info("Logged into backend " + backend + " in "
+								+ latency + " ms, "
+								+ ManagementFactory.getRuntimeMXBean().getUptime()
+								+ " ms after JVM start");
+						return si;
+					}
+				});
+		login = logins.putIfAbsent(backend, task);
+		if (login != null) {
+			return login;
+		}
+		loginExecutor.execute(task);
+		final Future<ServiceInterface> started = task;
+		loginTimer.schedule(new Runnable() {
+			public void run() {
+				if (started.cancel(true)) {
+					myLogger.warn("Login to backend " + backend
+							+ " cancelled after " + loginTimeoutInSeconds
+							+ " seconds.");
+				}
+			}
+		}, loginTimeoutInSeconds, TimeUnit.SECONDS);
+		return task;
+	}
+
+	public void setAllocationCheckpointInterval(int allocationCheckpointInterval) {
+		this.allocationCheckpointInterval = allocationCheckpointInterval;
+	}
+
+	public void setAllocationSoakJobs(int allocationSoakJobs) {
+		this.allocationSoakJobs = allocationSoakJobs;
+	}
+
+	public void setAdaptiveTimeouts(boolean adaptiveTimeouts) {
+		this.adaptiveTimeouts = adaptiveTimeouts;
+	}
+
 	public void setBackend(Set<String> backends) {
 		this.backends = backends;
 	}
 
+	public void setBundledStaging(boolean bundledStaging) {
+		this.bundledStaging = bundledStaging;
+	}
+
+	public void setBulkFetchThreads(int bulkFetchThreads) {
+		this.bulkFetchThreads = bulkFetchThreads;
+	}
+
+	public void setCacheInfoSystem(boolean cacheInfoSystem) {
+		this.cacheInfoSystem = cacheInfoSystem;
+	}
+
+	public void setChaosConcurrency(int chaosConcurrency) {
+		this.chaosConcurrency = chaosConcurrency;
+	}
+
+	public void setChaosDurationInSeconds(int chaosDurationInSeconds) {
+		this.chaosDurationInSeconds = chaosDurationInSeconds;
+	}
+
+	public void setChaosKillIntervalInSeconds(int chaosKillIntervalInSeconds) {
+		this.chaosKillIntervalInSeconds = chaosKillIntervalInSeconds;
+	}
+
 	public void setContent(String content) {
 		this.content = content;
 	}
@@ -228,6 +1044,22 @@ public class TestConfig {
 		this.gsiftpRemoteInputParent = gsiftpRemoteInputParent;
 	}
 
+	public void setHistogramMaxSamples(int histogramMaxSamples) {
+		this.histogramMaxSamples = histogramMaxSamples;
+	}
+
+	public void setInfoSystemSnapshotFile(String infoSystemSnapshotFile) {
+		this.infoSystemSnapshotFile = infoSystemSnapshotFile;
+	}
+
+	public void setInfoSystemCacheSize(int infoSystemCacheSize) {
+		this.infoSystemCacheSize = infoSystemCacheSize;
+	}
+
+	public void setInfoSystemCacheTtlInSeconds(int infoSystemCacheTtlInSeconds) {
+		this.infoSystemCacheTtlInSeconds = infoSystemCacheTtlInSeconds;
+	}
+
 	public void setInputFileName(String inputFileName) {
 		this.inputFileName = inputFileName;
 	}
@@ -240,12 +1072,135 @@ public class TestConfig {
 		this.jobname = jobname;
 	}
 
+	public void setJobsPerSimulatedUser(int jobsPerSimulatedUser) {
+		this.jobsPerSimulatedUser = jobsPerSimulatedUser;
+	}
+
+	public void setLargeOutputSizeInMb(int largeOutputSizeInMb) {
+		this.largeOutputSizeInMb = largeOutputSizeInMb;
+	}
+
+	public void setLoginTimeoutInSeconds(int loginTimeoutInSeconds) {
+		this.loginTimeoutInSeconds = loginTimeoutInSeconds;
+	}
+
 	public void setMyproxyServer(String myproxyServer) {
 		this.myproxyServer = myproxyServer;
 	}
 
+	public void setParallelBackends(boolean parallelBackends) {
+		this.parallelBackends = parallelBackends;
+	}
+
+	public void setParallelTests(boolean parallelTests) {
+		this.parallelTests = parallelTests;
+	}
+
+	public void setStandInQueueModel(QueueModel standInQueueModel) {
+		this.standInQueueModel = standInQueueModel;
+	}
+
+	public void setProfileAllocations(boolean profileAllocations) {
+		this.profileAllocations = profileAllocations;
+	}
+
+	public void setPooledSessions(boolean pooledSessions) {
+		this.pooledSessions = pooledSessions;
+	}
+
+	public void setSessionHealthCheckIntervalInSeconds(
+			int sessionHealthCheckIntervalInSeconds) {
+		this.sessionHealthCheckIntervalInSeconds = sessionHealthCheckIntervalInSeconds;
+	}
+
+	public void setSessionPoolSize(int sessionPoolSize) {
+		this.sessionPoolSize = sessionPoolSize;
+	}
+
+	public void setSnapshotApplications(
+			Map<String, List<String>> snapshotApplications) {
+		this.snapshotApplications = snapshotApplications;
+	}
+
+	public void setSmallInputCounts(List<Integer> smallInputCounts) {
+		this.smallInputCounts = smallInputCounts;
+	}
+
+	public void setSmallInputSizeInBytes(int smallInputSizeInBytes) {
+		this.smallInputSizeInBytes = smallInputSizeInBytes;
+	}
+
+	public void setSimulatedUsers(int simulatedUsers) {
+		this.simulatedUsers = simulatedUsers;
+	}
+
+	public void setStagingBenchmarkSizesInMb(
+			List<Integer> stagingBenchmarkSizesInMb) {
+		this.stagingBenchmarkSizesInMb = stagingBenchmarkSizesInMb;
+	}
+
 	public void setSubLoc10minMax(String subLoc) {
 		this.subLoc10minMax = subLoc;
 	}
 
+	public void setTraceRecordFile(String traceRecordFile) {
+		this.traceRecordFile = traceRecordFile;
+	}
+
+	public void setRegressionAcceptAfter(int regressionAcceptAfter) {
+		this.regressionAcceptAfter = regressionAcceptAfter;
+	}
+
+	public void setRegressionBaselineSize(int regressionBaselineSize) {
+		this.regressionBaselineSize = regressionBaselineSize;
+	}
+
+	public void setRegressionGate(boolean regressionGate) {
+		this.regressionGate = regressionGate;
+	}
+
+	public void setRegressionMinFactor(double regressionMinFactor) {
+		this.regressionMinFactor = regressionMinFactor;
+	}
+
+	public void setRegressionMinSamples(int regressionMinSamples) {
+		this.regressionMinSamples = regressionMinSamples;
+	}
+
+	public void setRegressionThresholdSigma(double regressionThresholdSigma) {
+		this.regressionThresholdSigma = regressionThresholdSigma;
+	}
+
+	public void setMaxPlatformUserThreads(int maxPlatformUserThreads) {
+		this.maxPlatformUserThreads = maxPlatformUserThreads;
+	}
+
+	public void setMaxTimeoutInSeconds(int maxTimeoutInSeconds) {
+		this.maxTimeoutInSeconds = maxTimeoutInSeconds;
+	}
+
+	public void setMinTimeoutInSeconds(int minTimeoutInSeconds) {
+		this.minTimeoutInSeconds = minTimeoutInSeconds;
+	}
+
+	public void setTimeoutFactor(double timeoutFactor) {
+		this.timeoutFactor = timeoutFactor;
+	}
+
+	public void setTimeoutPercentile(double timeoutPercentile) {
+		this.timeoutPercentile = timeoutPercentile;
+	}
+
+	public void setTimingHistoryFile(String timingHistoryFile) {
+		this.timingHistoryFile = timingHistoryFile;
+	}
+
+	public void setSweepJobsPerWorker(int sweepJobsPerWorker) {
+		this.sweepJobsPerWorker = sweepJobsPerWorker;
+	}
+
+	public void setSweepMaxConcurrency(int sweepMaxConcurrency) {
+		this.sweepMaxConcurrency = sweepMaxConcurrency;
+	}
+
 }
@@ -0,0 +1,213 @@
+package grisu.frontend.tests.utils;
+
+import grisu.control.JobConstants;
+import grisu.control.exceptions.JobPropertiesException;
+import grisu.frontend.model.job.GrisuJob;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Drives a {@link GrisuJob} through its lifecycle and records how long each
+ * {@link Phase} takes in {@link LatencyStats}, per backend, and how much it
+ * allocates (see {@link AllocationProfiler}).
+ *
+ * The queue phase ends when the job is seen as active, so its resolution is
+ * the poll interval. Waits are supervised by the {@link Watchdog} if
+ * {@link TestConfig#isAdaptiveTimeouts()} is set. Tools with many jobs in
+ * flight pass a {@link StatusPoller}, which then does the polling for all of
+ * them (with the deadline of the Watchdog, if adaptive).
+ *
+ * Finished jobs are also appended to the job trace, if one is configured (see
+ * {@link JobTrace}), and the phases are added to the timing history of the
+ * test running on the current thread (see {@link TimingHistory}).
+ */
+public class TimedJob {
+
+	private final String backend;
+	private final GrisuJob job;
+	private final StatusPoller poller;
+
+	private String fqan = null;
+	private long submitted = -1;
+	private long active = -1;
+	private long queueWaitInMs = -1;
+	private long runtimeInMs = -1;
+	private int status = JobConstants.UNDEFINED;
+
+	public TimedJob(String backend, GrisuJob job) {
+		this(backend, job, null);
+	}
+
+	/**
+	 * @param poller
+	 *            the poller to wait for the job with, or null to poll the job
+	 *            itself
+	 */
+	public TimedJob(String backend, GrisuJob job, StatusPoller poller) {
+		this.backend = backend;
+		this.job = job;
+		this.poller = poller;
+	}
+
+	public String createJob(String fqan) throws JobPropertiesException {
+		this.fqan = fqan;
+		AllocationProfiler.Mark mark = AllocationProfiler.mark();
+		long start = System.currentTimeMillis();
+		try {
+			return job.createJob(fqan);
+		} finally {
+			record(Phase.CREATE, start, mark);
+		}
+	}
+
+	public String getBackend() {
+		return backend;
+	}
+
+	public GrisuJob getJob() {
+		return job;
+	}
+
+	/**
+	 * The time from submission until the job was seen as active, or -1 if
+	 * {@link #waitForJobToFinish(int)} wasn't called yet.
+	 */
+	public long getQueueWaitInMs() {
+		return queueWaitInMs;
+	}
+
+	/**
+	 * The time from the job being seen as active until it finished, or -1 if
+	 * it didn't finish yet.
+	 */
+	public long getRuntimeInMs() {
+		return runtimeInMs;
+	}
+
+	/**
+	 * The status the last wait ended with. With a {@link StatusPoller} the
+	 * cached status of the GrisuJob is not updated, so use this instead.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	public String getStdErrContent() {
+		AllocationProfiler.Mark mark = AllocationProfiler.mark();
+		long start = System.currentTimeMillis();
+		try {
+			return job.getStdErrContent();
+		} finally {
+			record(Phase.OUTPUT, start, mark);
+		}
+	}
+
+	public String getStdOutContent() {
+		AllocationProfiler.Mark mark = AllocationProfiler.mark();
+		long start = System.currentTimeMillis();
+		try {
+			return job.getStdOutContent();
+		} finally {
+			record(Phase.OUTPUT, start, mark);
+		}
+	}
+
+	private void record(Phase phase, long start, AllocationProfiler.Mark mark) {
+		long duration = System.currentTimeMillis() - start;
+		LatencyStats.record(backend, phase, duration);
+		TimingHistory.recordPhase(phase, duration);
+		AllocationProfiler.record(backend, phase, mark);
+	}
+
+	public void submitJob() throws Exception {
+		AllocationProfiler.Mark mark = AllocationProfiler.mark();
+		long start = System.currentTimeMillis();
+		try {
+			job.submitJob(true);
+		} finally {
+			record(Phase.SUBMIT, start, mark);
+		}
+		submitted = System.currentTimeMillis();
+	}
+
+	/**
+	 * Waits for the job to become active (or finish), recording the queue
+	 * phase.
+	 *
+	 * @param checkIntervallInSeconds
+	 *            the poll interval, if there are no previous durations to
+	 *            derive it from (see {@link Watchdog})
+	 * @throws RuntimeException
+	 *             if the job is stuck
+	 */
+	public void waitForJobToBeActive(int checkIntervallInSeconds) {
+		long start = (submitted > 0) ? submitted : System.currentTimeMillis();
+		AllocationProfiler.Mark mark = AllocationProfiler.mark();
+		waitForState(Phase.QUEUE, JobConstants.ACTIVE, checkIntervallInSeconds);
+		record(Phase.QUEUE, start, mark);
+		active = System.currentTimeMillis();
+		queueWaitInMs = active - start;
+	}
+
+	/**
+	 * Waits for the job to become active and then to finish, recording the
+	 * queue and execution phases.
+	 *
+	 * @param checkIntervallInSeconds
+	 *            the poll interval, if there are no previous durations to
+	 *            derive it from (see {@link Watchdog})
+	 * @return whether the job finished
+	 * @throws RuntimeException
+	 *             if the job is stuck
+	 */
+	public boolean waitForJobToFinish(int checkIntervallInSeconds) {
+		if (active < 0) {
+			waitForJobToBeActive(checkIntervallInSeconds);
+		}
+		AllocationProfiler.Mark mark = AllocationProfiler.mark();
+		int status = waitForState(Phase.EXECUTION,
+				JobConstants.FINISHED_EITHER_WAY, checkIntervallInSeconds);
+		boolean finished = status >= JobConstants.FINISHED_EITHER_WAY;
+		record(Phase.EXECUTION, active, mark);
+		if (finished) {
+			runtimeInMs = System.currentTimeMillis() - active;
+			JobTrace.record(this, fqan, active - queueWaitInMs, queueWaitInMs,
+					runtimeInMs);
+		}
+		return finished;
+	}
+
+	private int waitForState(Phase phase, int state, int checkIntervallInSeconds) {
+		TestConfig config = TestConfig.getTestConfig();
+		if (poller != null) {
+			long timeout = config.isAdaptiveTimeouts() ? Watchdog.getDefault()
+					.getDeadlineInMs(backend, phase) : config
+					.getMaxTimeoutInSeconds() * 1000L;
+			try {
+				status = poller.register(job, state, timeout).get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Job " + job.getJobname() + " on "
+						+ backend + " didn't reach "
+						+ JobConstants.translateStatus(state) + " (" + phase
+						+ "): " + e.getCause().getLocalizedMessage() + "\n"
+						+ Watchdog.dump(job), e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for job "
+						+ job.getJobname(), e);
+			}
+		} else if (config.isAdaptiveTimeouts()) {
+			status = Watchdog.getDefault().waitForState(job, backend, phase,
+					state, checkIntervallInSeconds);
+		} else {
+			if (state == JobConstants.FINISHED_EITHER_WAY) {
+				job.waitForJobToFinish(checkIntervallInSeconds);
+			} else {
+				job.waitForJobToReachState(state, checkIntervallInSeconds);
+			}
+			status = job.getStatus(false);
+		}
+		return status;
+	}
+
+}
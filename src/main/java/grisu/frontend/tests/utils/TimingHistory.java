@@ -0,0 +1,330 @@
+package grisu.frontend.tests.utils;
+
+import grisu.settings.Environment;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An append-only history of test and phase durations, and a regression gate
+ * against it.
+ *
+ * Every test run by {@link ParallelParameterized} appends its duration, and
+ * the summed duration of every {@link Phase} its {@link TimedJob}s went
+ * through, to {@link TestConfig#getTimingHistoryFile()}. One line per
+ * sample, tab separated: <code>time key durationInMs</code>, where key is
+ * <code>class.method[backend]</code> for tests,
+ * <code>class.method[backend]/PHASE</code> for phases and
+ * <code>class.method[backend]{@value #NET_SUFFIX}</code> for the test
+ * duration without the {@link #BACKEND_PHASES}. Samples that were
+ * regressions have a fourth column, {@value #REGRESSION_MARK}, and are not
+ * part of any baseline, so a slow run doesn't raise the threshold of the
+ * next ones. Once a key regressed in
+ * {@link TestConfig#getRegressionAcceptAfter()} runs in a row, the slowdown
+ * is accepted: those samples join the baseline, so the gate doesn't fail
+ * forever after a genuine change. Marked samples followed by a normal one
+ * stay excluded. To accept a slowdown right away, remove the
+ * {@value #REGRESSION_MARK} column from its lines.
+ *
+ * The baseline of a key are its last
+ * {@link TestConfig#getRegressionBaselineSize()} samples from previous runs.
+ * Once there are at least {@link TestConfig#getRegressionMinSamples()} of
+ * them, a new duration is a regression if it's above both
+ * <code>mean + k * stddev</code> (k is
+ * {@link TestConfig#getRegressionThresholdSigma()}) and
+ * <code>mean * {@link TestConfig#getRegressionMinFactor()}</code>; the
+ * latter keeps tests with very stable durations from failing because of a
+ * few milliseconds. Regressions fail the test if
+ * {@link TestConfig#isRegressionGate()} is set. Queue and execution phases
+ * depend on the load of the backend rather than the middleware, so they are
+ * recorded but never gated, like the time spent waiting in
+ * {@link JobWaiter}; neither is the total test duration, which includes
+ * them. Only the {@link #GATED_PHASES} and the net test duration
+ * are.
+ */
+public class TimingHistory {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(TimingHistory.class);
+
+	public static final Set<Phase> GATED_PHASES = EnumSet.of(Phase.CREATE,
+			Phase.SUBMIT, Phase.OUTPUT);
+
+	/**
+	 * The phases that depend on the load of the backend.
+	 */
+	public static final Set<Phase> BACKEND_PHASES = EnumSet.of(Phase.QUEUE,
+			Phase.EXECUTION, Phase.WAIT);
+
+	public static final String NET_SUFFIX = "/NET";
+
+	public static final String REGRESSION_MARK = "regression";
+
+	private static TimingHistory defaultHistory = null;
+
+	// the test running on the current thread, and its phase durations
+	private static final ThreadLocal<String> currentTest = new ThreadLocal<String>();
+	private static final ThreadLocal<Map<Phase, Long>> currentPhases = new ThreadLocal<Map<Phase, Long>>();
+
+	public static synchronized TimingHistory getDefault() {
+		if (defaultHistory == null) {
+			TestConfig config = TestConfig.getTestConfig();
+			defaultHistory = new TimingHistory(config.getTimingHistoryFile(),
+					config.getRegressionBaselineSize(),
+					config.getRegressionAcceptAfter());
+		}
+		return defaultHistory;
+	}
+
+	/**
+	 * The file a history is written to by default.
+	 */
+	public static File getDefaultFile() {
+		return new File(Environment.getGrisuDirectory(),
+				"integrationtest-timings.tsv");
+	}
+
+	/**
+	 * The name of the test running on the current thread.
+	 *
+	 * @return the test name (<code>class.method[backend]</code>), or null if
+	 *         this thread doesn't run a test
+	 */
+	public static String getCurrentTest() {
+		return currentTest.get();
+	}
+
+	/**
+	 * Adds the duration of a phase to the test running on the current thread,
+	 * if any.
+	 */
+	static void recordPhase(Phase phase, long durationInMs) {
+		Map<Phase, Long> phases = currentPhases.get();
+		if (phases != null) {
+			Long sum = phases.get(phase);
+			phases.put(phase, ((sum == null) ? 0 : sum) + durationInMs);
+		}
+	}
+
+	/**
+	 * Starts collecting phase durations for a test on the current thread.
+	 */
+	static void startTest(String test) {
+		currentTest.set(test);
+		currentPhases.set(Maps.<Phase, Long> newEnumMap(Phase.class));
+	}
+
+	/**
+	 * Stops collecting phase durations on the current thread.
+	 *
+	 * @return the summed durations of all phases of the test
+	 */
+	static Map<Phase, Long> stopTest() {
+		Map<Phase, Long> phases = currentPhases.get();
+		currentTest.remove();
+		currentPhases.remove();
+		return (phases == null) ? Maps.<Phase, Long> newEnumMap(Phase.class)
+				: phases;
+	}
+
+	private final File file;
+	private final int baselineSize;
+	private final int acceptAfter;
+
+	// key -> last samples of previous runs, oldest first
+	private final Map<String, LinkedList<Long>> baselines = Maps.newHashMap();
+
+	public TimingHistory(File file, int baselineSize, int acceptAfter) {
+		this.file = file;
+		this.baselineSize = baselineSize;
+		this.acceptAfter = acceptAfter;
+		load();
+	}
+
+	/**
+	 * Checks a duration against the baseline of its key.
+	 *
+	 * @param key
+	 *            the test or phase
+	 * @param durationInMs
+	 *            the new duration
+	 * @param minSamples
+	 *            the number of samples needed for a baseline
+	 * @param sigma
+	 *            the number of standard deviations allowed above the mean
+	 * @param minFactor
+	 *            the factor of the mean that is always allowed
+	 * @return a description of the regression, or null if there is none (or
+	 *         not enough samples)
+	 */
+	public synchronized String check(String key, long durationInMs,
+			int minSamples, double sigma, double minFactor) {
+
+		List<Long> samples = baselines.get(key);
+		if ((samples == null) || (samples.size() < minSamples)) {
+			return null;
+		}
+		double mean = 0;
+		for (long s : samples) {
+			mean += s;
+		}
+		mean /= samples.size();
+		double variance = 0;
+		for (long s : samples) {
+			variance += (s - mean) * (s - mean);
+		}
+		double stddev = Math.sqrt(variance / samples.size());
+
+		double threshold = Math.max(mean + (sigma * stddev), mean * minFactor);
+		if (durationInMs <= threshold) {
+			return null;
+		}
+		return String.format(
+				"%s took %d ms, baseline of %d runs: mean %.0f ms, stddev %.0f ms, threshold %.0f ms",
+				key, durationInMs, samples.size(), mean, stddev, threshold);
+	}
+
+	/**
+	 * The samples of previous runs of a key.
+	 *
+	 * @return the baseline, or null if there are less than minSamples
+	 */
+	public synchronized LatencyHistogram getBaseline(String key, int minSamples) {
+		List<Long> samples = baselines.get(key);
+		if ((samples == null) || (samples.size() < minSamples)) {
+			return null;
+		}
+		LatencyHistogram baseline = new LatencyHistogram();
+		for (long s : samples) {
+			baseline.record(s);
+		}
+		return baseline;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private void addToBaseline(String key, long sample) {
+		LinkedList<Long> samples = baselines.get(key);
+		if (samples == null) {
+			samples = new LinkedList<Long>();
+			baselines.put(key, samples);
+		}
+		samples.add(sample);
+		if (samples.size() > baselineSize) {
+			samples.removeFirst();
+		}
+	}
+
+	private void load() {
+		if (!file.exists()) {
+			return;
+		}
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(file));
+			// key -> regressions since the last normal sample
+			Map<String, List<Long>> pending = Maps.newHashMap();
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] f = line.split("\t");
+				boolean marked = (f.length == 4)
+						&& REGRESSION_MARK.equals(f[3]);
+				if ((f.length != 3) && !marked) {
+					continue;
+				}
+				long sample;
+				try {
+					sample = Long.parseLong(f[2]);
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				List<Long> regressions = pending.get(f[1]);
+				if (marked) {
+					if (regressions == null) {
+						regressions = Lists.newArrayList();
+						pending.put(f[1], regressions);
+					}
+					regressions.add(sample);
+					if (regressions.size() < Math.max(1, acceptAfter)) {
+						continue;
+					}
+					// a lasting slowdown, accept it
+					for (long r : regressions) {
+						addToBaseline(f[1], r);
+					}
+				} else {
+					addToBaseline(f[1], sample);
+				}
+				pending.remove(f[1]);
+			}
+		} catch (IOException e) {
+			myLogger.warn("Can't read timing history " + file + ": "
+					+ e.getLocalizedMessage());
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Appends durations to the history.
+	 *
+	 * @see #record(Map, Set)
+	 */
+	public void record(Map<String, Long> durations) {
+		record(durations, Collections.<String> emptySet());
+	}
+
+	/**
+	 * Appends durations to the history. They don't become part of the
+	 * baseline until the next run, and the regressions never do.
+	 *
+	 * Errors are logged and otherwise ignored, recording must never fail a
+	 * test.
+	 *
+	 * @param durations
+	 *            key to duration in ms
+	 * @param regressions
+	 *            the keys whose duration is a regression
+	 */
+	public synchronized void record(Map<String, Long> durations,
+			Set<String> regressions) {
+		long now = System.currentTimeMillis();
+		Writer out = null;
+		try {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			out = new FileWriter(file, true);
+			for (String key : durations.keySet()) {
+				Object[] fields = regressions.contains(key) ? new Object[] {
+						now, key, durations.get(key), REGRESSION_MARK }
+						: new Object[] { now, key, durations.get(key) };
+				out.write(StringUtils.join(fields, '\t') + "\n");
+			}
+		} catch (IOException e) {
+			myLogger.warn("Can't write timing history " + file + ": "
+					+ e.getLocalizedMessage());
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package grisu.frontend.tests.utils;
+
+import grisu.control.JobConstants;
+import grisu.frontend.model.job.GrisuJob;
+import grisu.model.dto.GridFile;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits for jobs with deadlines and poll intervals derived from how long the
+ * same wait took before, and aborts waits on stuck jobs with a dump of the
+ * job's state.
+ *
+ * The durations come from the {@link TimingHistory} baseline of the test
+ * running on the current thread (i.e. the same backend and job) or, if there
+ * is none or not enough samples, from the {@link LatencyStats} of the backend
+ * in this run. The deadline is the {@link TestConfig#getTimeoutPercentile()}
+ * percentile times {@link TestConfig#getTimeoutFactor()}, between
+ * {@link TestConfig#getMinTimeoutInSeconds()} and
+ * {@link TestConfig#getMaxTimeoutInSeconds()}; without any history it's the
+ * maximum. The poll interval is a {@value #POLLS_PER_MEDIAN}th of the median,
+ * between {@link #MIN_POLL_INTERVAL_IN_MS} and {@link #MAX_POLL_INTERVAL_IN_MS},
+ * so fast backends are polled often and slow ones aren't hammered. Without
+ * history the caller's interval is used.
+ */
+public class Watchdog {
+
+	public static final Logger myLogger = LoggerFactory
+			.getLogger(Watchdog.class);
+
+	public static final long MIN_POLL_INTERVAL_IN_MS = 1000;
+	public static final long MAX_POLL_INTERVAL_IN_MS = 30000;
+	public static final int POLLS_PER_MEDIAN = 5;
+
+	private static final int MAX_OUTPUT_IN_DUMP = 2000;
+
+	private static Watchdog defaultWatchdog = null;
+
+	/**
+	 * Describes the current state of a job, for diagnosing stuck jobs. Never
+	 * throws, parts that can't be retrieved are reported as such.
+	 */
+	public static String dump(GrisuJob job) {
+		StringBuffer dump = new StringBuffer();
+		dump.append("\tjob: ").append(job.getJobname()).append("\n");
+		try {
+			dump.append("\tstatus: ").append(job.getStatusString(true))
+					.append("\n");
+		} catch (Exception e) {
+			dump.append("\tstatus: n/a (").append(e.getLocalizedMessage())
+					.append(")\n");
+		}
+		try {
+			dump.append("\tproperties: ")
+					.append(job.getStringJobSubmissionPropertyMap())
+					.append("\n");
+		} catch (Exception e) {
+			dump.append("\tproperties: n/a (").append(e.getLocalizedMessage())
+					.append(")\n");
+		}
+		try {
+			dump.append("\tjob directory: ").append(job.getJobDirectoryUrl())
+					.append("\n");
+			for (GridFile child : job.listJobDirectory().getChildren()) {
+				dump.append("\t\t").append(child.getUrl()).append("\n");
+			}
+		} catch (Exception e) {
+			dump.append("\tjob directory: n/a (")
+					.append(e.getLocalizedMessage()).append(")\n");
+		}
+		try {
+			dump.append("\tstdout: ")
+					.append(StringUtils.abbreviate(job.getStdOutContent(),
+							MAX_OUTPUT_IN_DUMP)).append("\n");
+			dump.append("\tstderr: ")
+					.append(StringUtils.abbreviate(job.getStdErrContent(),
+							MAX_OUTPUT_IN_DUMP)).append("\n");
+		} catch (Exception e) {
+			dump.append("\toutput: n/a (").append(e.getLocalizedMessage())
+					.append(")\n");
+		}
+		return dump.toString();
+	}
+
+	public static synchronized Watchdog getDefault() {
+		if (defaultWatchdog == null) {
+			defaultWatchdog = new Watchdog(TestConfig.getTestConfig());
+		}
+		return defaultWatchdog;
+	}
+
+	private final TestConfig config;
+
+	public Watchdog(TestConfig config) {
+		this.config = config;
+	}
+
+	/**
+	 * How long a wait for the end of a phase may take.
+	 */
+	public long getDeadlineInMs(String backend, Phase phase) {
+		long max = config.getMaxTimeoutInSeconds() * 1000L;
+		LatencyHistogram history = getHistory(backend, phase);
+		if (history == null) {
+			return max;
+		}
+		long deadline = (long) (history.getPercentile(config
+				.getTimeoutPercentile()) * config.getTimeoutFactor());
+		return Math.min(max,
+				Math.max(config.getMinTimeoutInSeconds() * 1000L, deadline));
+	}
+
+	private LatencyHistogram getHistory(String backend, Phase phase) {
+		int minSamples = config.getRegressionMinSamples();
+		String test = TimingHistory.getCurrentTest();
+		if (test != null) {
+			LatencyHistogram baseline = TimingHistory.getDefault()
+					.getBaseline(test + "/" + phase, minSamples);
+			if (baseline != null) {
+				return baseline;
+			}
+		}
+		LatencyHistogram current = LatencyStats.getHistogram(backend, phase);
+		return (current.getCount() >= minSamples) ? current : null;
+	}
+
+	/**
+	 * How often to poll while waiting for the end of a phase.
+	 *
+	 * @param defaultIntervalInSeconds
+	 *            the interval to use if there is no history
+	 */
+	public long getPollIntervalInMs(String backend, Phase phase,
+			int defaultIntervalInSeconds) {
+		LatencyHistogram history = getHistory(backend, phase);
+		if (history == null) {
+			return defaultIntervalInSeconds * 1000L;
+		}
+		long interval = history.getPercentile(50) / POLLS_PER_MEDIAN;
+		return Math.min(MAX_POLL_INTERVAL_IN_MS,
+				Math.max(MIN_POLL_INTERVAL_IN_MS, interval));
+	}
+
+	/**
+	 * Polls a job until it reached (or passed) a state.
+	 *
+	 * @param job
+	 *            the job
+	 * @param backend
+	 *            the backend the job runs on
+	 * @param phase
+	 *            the phase that ends when the state is reached
+	 * @param state
+	 *            the state, e.g. {@link JobConstants#ACTIVE}
+	 * @param defaultIntervalInSeconds
+	 *            the poll interval if there is no history
+	 * @return the status of the job
+	 * @throws RuntimeException
+	 *             if the deadline passed (with a dump of the job's state) or
+	 *             the thread got interrupted
+	 */
+	public int waitForState(GrisuJob job, String backend, Phase phase,
+			int state, int defaultIntervalInSeconds) {
+
+		long timeout = getDeadlineInMs(backend, phase);
+		long interval = getPollIntervalInMs(backend, phase,
+				defaultIntervalInSeconds);
+		long start = System.currentTimeMillis();
+		long deadline = start + timeout;
+		myLogger.debug("Job " + job.getJobname() + ": waiting for "
+				+ JobConstants.translateStatus(state) + ", deadline "
+				+ timeout + " ms, polling every " + interval + " ms");
+
+		while (true) {
+			int status = JobConstants.UNDEFINED;
+			try {
+				status = job.getStatus(true);
+			} catch (Exception e) {
+				myLogger.debug("Can't get status of job " + job.getJobname()
+						+ ": " + e.getLocalizedMessage());
+			}
+			if (status >= state) {
+				return status;
+			}
+
+			long now = System.currentTimeMillis();
+			if (now >= deadline) {
+				String msg = "Job " + job.getJobname() + " on " + backend
+						+ " didn't reach "
+						+ JobConstants.translateStatus(state) + " within "
+						+ timeout + " ms (" + phase + "), aborting:\n"
+						+ dump(job);
+				myLogger.error(msg);
+				throw new RuntimeException(msg);
+			}
+			try {
+				Thread.sleep(Math.min(interval, deadline - now));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for job "
+						+ job.getJobname(), e);
+			}
+		}
+	}
+
+}
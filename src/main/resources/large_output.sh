@@ -0,0 +1,14 @@
+size_in_mb=$1
+
+end_message="LARGE_OUTPUT_END"
+
+# 1024 lines of 1024 bytes each per MB
+line=$(printf '%01023d' 0 | tr '0' 'x')
+
+i=0
+while [ ${i} -lt ${size_in_mb} ]; do
+  yes "${line}" | head -n 1024
+  i=$((i+1))
+done
+
+echo ${end_message}
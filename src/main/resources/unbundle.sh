@@ -0,0 +1,8 @@
+bundle=$1
+shift
+
+# unpack the inputs that were staged as one archive, then run the job
+unzip -qo "${bundle}" 2>/dev/null || python -c "import sys, zipfile; zipfile.ZipFile(sys.argv[1]).extractall()" "${bundle}" || exit 1
+rm -f "${bundle}"
+
+exec "$@"
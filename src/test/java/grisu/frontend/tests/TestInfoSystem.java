@@ -1,11 +1,15 @@
 package grisu.frontend.tests;
 
 import static org.hamcrest.Matchers.isIn;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import grisu.control.ServiceInterface;
 import grisu.control.exceptions.JobPropertiesException;
-import grisu.frontend.control.login.LoginManager;
 import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.utils.AfterBackend;
+import grisu.frontend.tests.utils.BeforeBackend;
+import grisu.frontend.tests.utils.CachingServiceInterface;
+import grisu.frontend.tests.utils.ParallelParameterized;
 import grisu.frontend.tests.utils.TestConfig;
 import grisu.model.FileManager;
 import grisu.model.GrisuRegistryManager;
@@ -14,22 +18,24 @@ import grisu.model.info.dto.Queue;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 
+import org.apache.commons.lang.StringUtils;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TestName;
 import org.junit.runner.RunWith;
-import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
 
-@RunWith(value = Parameterized.class)
+@RunWith(value = ParallelParameterized.class)
 public class TestInfoSystem {
 	
 
@@ -39,23 +45,48 @@ public class TestInfoSystem {
 
 	private static final TestConfig config = TestConfig.getTestConfig();
 
-	private static final Map<String, ServiceInterface> sis = config
-			.getServiceInterfaces();
+	/**
+	 * Suffix of the parameter sets that query through the info-system cache.
+	 */
+	private static final String CACHED_SUFFIX = "-cached";
 
+	/**
+	 * Only returns the backend names, the backends are logged into when their
+	 * first test runs (see {@link #setUpBackend(String)}).
+	 */
 	@Parameters
 	public static Collection<Object[]> data() {
 
 
 		List<Object[]> result = Lists.newArrayList();
 
-		for (String backend : config.getServiceInterfaces().keySet()) {
-			result.add(new Object[] { backend,
-					config.getServiceInterfaces().get(backend) });
+		for (String backend : config.getSelectedBackends()) {
+			result.add(new Object[] { backend });
+			if (!config.isCacheInfoSystem()) {
+				// run the same queries through the info-system cache
+				result.add(new Object[] { backend + CACHED_SUFFIX });
+			}
 		}
 
 		return result;
 	}
 
+	/**
+	 * Logs into a backend, skipping all its tests if that fails.
+	 */
+	private static ServiceInterface login(String backendname) {
+		try {
+			if (backendname.endsWith(CACHED_SUFFIX)) {
+				return config.getCachingServiceInterface(StringUtils.removeEnd(
+						backendname, CACHED_SUFFIX));
+			}
+			return config.getServiceInterface(backendname);
+		} catch (RuntimeException e) {
+			Assume.assumeNoException(e);
+			return null;
+		}
+	}
+
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception {
 	}
@@ -64,22 +95,45 @@ public class TestInfoSystem {
 	public static void tearDownAfterClass() throws Exception {
 	}
 
+	@BeforeBackend
+	public static void setUpBackend(String backend) {
+		login(backend);
+	}
+
+	@AfterBackend
+	public static void tearDownBackend(String backend) {
+		if (!config.isLoggedIn(StringUtils.removeEnd(backend, CACHED_SUFFIX))) {
+			return;
+		}
+		CachingServiceInterface cache = CachingServiceInterface
+				.get(login(backend));
+		if (cache != null) {
+			System.out.println("Backend " + backend + ": " + cache);
+		}
+	}
+
+	@Rule
+	public TestName testName = new TestName();
+
 	private final ServiceInterface si;
 	private final String backendname;
 	private final FileManager fm;
+	private String jobname;
 
-	public TestInfoSystem(String backendname, ServiceInterface si) {
+	public TestInfoSystem(String backendname) {
 		this.backendname = backendname;
-		this.si = si;
+		this.si = login(backendname);
 		this.fm = GrisuRegistryManager.getDefault(si).getFileManager();
 	}
 
 	@Before
 	public void setUp() throws Exception {
+		jobname = config.createJobname(testName.getMethodName());
 	}
 
 	@After
 	public void tearDown() throws Exception {
+		config.cleanJob(si, jobname);
 	}
 
 	@Test
@@ -104,7 +158,7 @@ public class TestInfoSystem {
 			throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("echo " + config.getContent());
 		job.setApplication("generic");
 		job.setSubmissionLocation(config.getSubLoc10minMax());
@@ -124,7 +178,7 @@ public class TestInfoSystem {
 			throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("echo " + config.getContent());
 		job.setApplication("generic");
 		job.setSubmissionLocation(config.getSubLoc10minMax());
@@ -133,6 +187,45 @@ public class TestInfoSystem {
 		job.createJob(config.getFqan());
 	}
 
+	/**
+	 * Checks that cached queue queries return the same queues as the backend
+	 * itself and that repeated queries are answered from the cache.
+	 */
+	@Test
+	public void testCachedQueriesMatchBackend() {
+
+		CachingServiceInterface cache = CachingServiceInterface.get(si);
+		Assume.assumeNotNull(cache);
+
+		GrisuJob job = new GrisuJob(si);
+		job.setJobname(jobname);
+		job.setCommandline("echo " + config.getContent());
+		job.setApplication("generic");
+		// a walltime no other test uses, so no other test running in
+		// parallel shares the cache key
+		job.setWalltimeInSeconds(540);
+
+		DtoProperties dto = DtoProperties.createProperties(job
+				.getStringJobSubmissionPropertyMap());
+
+		List<String> expected = Lists.newArrayList();
+		for (Queue q : cache.getWrapped().findQueues(dto, config.getFqan())) {
+			expected.add(q.toString());
+		}
+
+		for (int i = 0; i < 2; i++) {
+			long hits = cache.getHits(dto, config.getFqan());
+			List<String> cached = Lists.newArrayList();
+			for (Queue q : si.findQueues(dto, config.getFqan())) {
+				cached.add(q.toString());
+			}
+			assertEquals(expected, cached);
+			if (i > 0) {
+				assertEquals(hits + 1, cache.getHits(dto, config.getFqan()));
+			}
+		}
+	}
+
 	/**
 	 * Checks that query for queues returns queue that has slightly bigger max
 	 * walltime than is configured in the job.
@@ -141,7 +234,7 @@ public class TestInfoSystem {
 	public void testQueryQueuesAlmostMaxWalltime() {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("echo " + config.getContent());
 		job.setApplication("generic");
 		job.setWalltimeInSeconds(599);
@@ -172,7 +265,7 @@ public class TestInfoSystem {
 	public void testQueryQueuesMaxWalltime() {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("echo " + config.getContent());
 		job.setApplication("generic");
 		job.setWalltimeInSeconds(660);
@@ -5,31 +5,42 @@ import grisu.control.JobConstants;
 import grisu.control.ServiceInterface;
 import grisu.control.exceptions.JobPropertiesException;
 import grisu.frontend.model.job.GrisuJob;
+import grisu.frontend.tests.utils.AfterBackend;
+import grisu.frontend.tests.utils.AllocationProfiler;
+import grisu.frontend.tests.utils.BeforeBackend;
+import grisu.frontend.tests.utils.BulkFetcher;
 import grisu.frontend.tests.utils.Input;
+import grisu.frontend.tests.utils.JobOutput;
+import grisu.frontend.tests.utils.JobWaiter;
+import grisu.frontend.tests.utils.ParallelParameterized;
+import grisu.frontend.tests.utils.SessionPool.Session;
+import grisu.frontend.tests.utils.StagingManifest;
 import grisu.frontend.tests.utils.TestConfig;
+import grisu.frontend.tests.utils.TimedJob;
 import grisu.model.FileManager;
 import grisu.model.GrisuRegistryManager;
 import grisu.model.dto.GridFile;
-import grisu.model.info.dto.DtoStringList;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.junit.*;
+import org.junit.rules.TestName;
 import org.junit.runner.RunWith;
-import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
+import static grisu.frontend.tests.utils.StreamMatchers.streamContainsString;
+import static grisu.frontend.tests.utils.StreamMatchers.streamIsBlank;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.*;
 
-@RunWith(value = Parameterized.class)
+@RunWith(value = ParallelParameterized.class)
 public class TestJobSubmission {
 
 	public static Logger myLogger = LoggerFactory
@@ -37,21 +48,47 @@ public class TestJobSubmission {
 
 	private static final TestConfig config = TestConfig.getTestConfig();
 
-	private static final Map<String, ServiceInterface> sis = config
-			.getServiceInterfaces();
-
+	/**
+	 * Only returns the backend names, the backends are logged into when their
+	 * first test runs (see {@link #setUpBackend(String)}).
+	 */
 	@Parameters
 	public static Collection<Object[]> data() {
 		List<Object[]> result = Lists.newArrayList();
 
-		for (String backend : config.getServiceInterfaces().keySet()) {
-			result.add(new Object[] { backend,
-					config.getServiceInterfaces().get(backend) });
+		for (String backend : config.getSelectedBackends()) {
+			result.add(new Object[] { backend });
 		}
 
 		return result;
 	}
 
+	/**
+	 * Logs into a backend, skipping all its tests if that fails.
+	 */
+	private static ServiceInterface login(String backend) {
+		try {
+			return config.getServiceInterface(backend);
+		} catch (RuntimeException e) {
+			Assume.assumeNoException(e);
+			return null;
+		}
+	}
+
+	/**
+	 * Checks out a session of a backend's pool, skipping the test if that
+	 * fails.
+	 */
+	private static Session checkout(String backend) {
+		try {
+			return config.getSessionPool(backend).checkout(
+					config.getLoginTimeoutInSeconds());
+		} catch (Exception e) {
+			Assume.assumeNoException(e);
+			return null;
+		}
+	}
+
 
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception {
@@ -59,63 +96,75 @@ public class TestJobSubmission {
 		// delete temp dir
 		FileUtils.deleteDirectory(Input.INPUT_FILES_DIR);
 		// getConfig();
+	}
 
-		for (String backend : sis.keySet()) {
+	@BeforeBackend
+	public static void setUpBackend(String backend) throws Exception {
 
-			ServiceInterface si = sis.get(backend);
-			// killing all jobs
-			System.out.println("Killing all jobs on backend: " + backend);
-			DtoStringList allJobnames = si.getAllJobnames(null);
-			if ((allJobnames != null)
-					&& (allJobnames.getStringList().size() > 0)) {
-				si.killJobs(allJobnames, true);
-			}
+		System.out.println("Setting up backend: " + backend);
+		ServiceInterface si = login(backend);
+		FileManager fm = GrisuRegistryManager.getDefault(si)
+				.getFileManager();
+		// make sure remoteInputFile is populated, skips upload if unchanged
+		StagingManifest.getDefault().ensureStaged(backend, fm,
+				config.getInputFile(), config.getGsiftpRemoteInputParent());
 
-			System.out.println("Setting up backend: " + backend);
-			FileManager fm = GrisuRegistryManager.getDefault(si)
-					.getFileManager();
-			// make sure remoteInputFile is populated
-			fm.deleteFile(config.getGsiftpRemoteInputFile());
-			fm.cp(config.getInputFile(),
-					config.getGsiftpRemoteInputParent(), true);
+	}
 
-			long localsize = new File(config.getInputFile()).length();
-			long remotesize = fm.getFileSize(config.getGsiftpRemoteInputFile());
+	@AfterBackend
+	public static void tearDownBackend(String backend) throws Exception {
 
-			if (localsize != remotesize) {
-				throw new RuntimeException(
-						"Can't setup remote input file: sizes differ");
-			}
+		if (!config.isLoggedIn(backend)) {
+			return;
 		}
-
+		ServiceInterface si = config.getServiceInterface(backend);
+		// only kill jobs of this run, other runs might share the backend
+		System.out.println("Killing jobs of this run on backend: " + backend);
+		config.killOwnJobs(si);
+		if (config.isPooledSessions()) {
+			config.getSessionPool(backend).close();
+			System.out.println("Sessions: " + config.getSessionPool(backend));
+		}
+		si.logout();
 	}
 
-	@AfterClass
-	public static void tearDownAfterClass() throws Exception {
-
-		for (ServiceInterface si : sis.values()) {
-			DtoStringList allJobnames = si.getAllJobnames(null);
-			if ((allJobnames != null)
-					&& (allJobnames.getStringList().size() > 0)) {
-				si.killJobs(allJobnames, true);
-			}
-			si.logout();
-		}
+	/**
+	 * Satisfied once kill_job_managers.sh printed its marker. Batch backends
+	 * only stage stdout back when the job ends, so this is also satisfied
+	 * once the job has been active for longer than the script needs to kill
+	 * the job managers (about 10 seconds).
+	 */
+	private static JobWaiter.Condition killedJobManagers() {
+		return JobWaiter.anyOf(
+				JobWaiter.stdoutContains("KILLED_JOBMANAGERS_"),
+				JobWaiter.activeFor(15000));
 	}
 
+	@Rule
+	public TestName testName = new TestName();
+
 	private final ServiceInterface si;
 	private final String backendname;
 	private final FileManager fm;
+	private String jobname;
+	// the pooled session of this test, if sessions are pooled
+	private final Session session;
 
-	public TestJobSubmission(String backendname, ServiceInterface si) {
+	public TestJobSubmission(String backendname) {
 		this.backendname = backendname;
-		this.si = si;
+		if (config.isPooledSessions()) {
+			this.session = checkout(backendname);
+			this.si = session.getServiceInterface();
+		} else {
+			this.session = null;
+			this.si = login(backendname);
+		}
 		this.fm = GrisuRegistryManager.getDefault(si).getFileManager();
 	}
 
 	@Before
 	public void setUp() throws Exception {
-		si.kill(config.getJobname(), true);
+		jobname = config.createJobname(testName.getMethodName());
 	}
 
 	/**
@@ -130,7 +179,7 @@ public class TestJobSubmission {
 	public void simpleGenericJobWithLocalAndRemoteInput() throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("cat " + config.getInputFileName() + " "
 				+ config.getInputFileName2());
 		job.setApplication("generic");
@@ -138,12 +187,14 @@ public class TestJobSubmission {
 		job.addInputFileUrl(config.getInputFile2());
 		job.addInputFileUrl(config.getGsiftpRemoteInputFile());
 
-		job.createJob(config.getFqan());
-		job.submitJob(true);
+		TimedJob timed = new TimedJob(backendname, job);
+
+		timed.createJob(config.getFqan());
+		timed.submitJob();
 
-		job.waitForJobToFinish(4);
+		timed.waitForJobToFinish(4);
 
-		String stdout = job.getStdOutContent();
+		String stdout = timed.getStdOutContent();
 
 		myLogger.debug("Content: " + stdout);
 
@@ -162,41 +213,52 @@ public class TestJobSubmission {
 
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("cat " + config.getInputFileName());
 		job.setApplication("generic");
 
 		job.addInputFileUrl(config.getInputFile());
 
-		job.createJob(config.getFqan());
-		job.submitJob(true);
-        GridFile f = job.listJobDirectory();
-        for ( GridFile c : f.getChildren() ) {
-            System.out.println("\tChild of '"+f.getUrl()+": "+c.getUrl());
-            System.out.println("\t=========================");
-            System.out.println("Content:");
-            System.out.println(fm.getFileContent(c.getUrl()));
-            System.out.println("\t=========================");
-        }
-
-		job.waitForJobToFinish(4);
-
-        f = job.listJobDirectory();
-        for ( GridFile c : f.getChildren() ) {
-            System.out.println("\tChild of '"+f.getUrl()+": "+c.getUrl());
-            System.out.println("\t=========================");
-            System.out.println("Content:");
-            System.out.println(fm.getFileContent(c.getUrl()));
-            System.out.println("\t=========================");
-        }
-
-		String stdout = job.getStdOutContent();
+		TimedJob timed = new TimedJob(backendname, job);
+
+		timed.createJob(config.getFqan());
+		timed.submitJob();
+		printJobDirectory(job);
+
+		timed.waitForJobToFinish(4);
+
+		printJobDirectory(job);
+
+		String stdout = timed.getStdOutContent();
 		myLogger.debug("Content: " + stdout);
 
 		assertThat(stdout, containsString("markus"));
 
 	}
 
+	/**
+	 * Prints the content of all files in the job directory, fetching them
+	 * concurrently.
+	 */
+	private void printJobDirectory(GrisuJob job) throws Exception {
+		final GridFile f = job.listJobDirectory();
+		new BulkFetcher(fm, config.getBulkFetchThreads()).fetch(f,
+				new BulkFetcher.FileConsumer() {
+					public void consume(GridFile c, InputStream content)
+							throws Exception {
+						synchronized (System.out) {
+							System.out.println("\tChild of '" + f.getUrl()
+									+ ": " + c.getUrl());
+							System.out.println("\t=========================");
+							System.out.println("Content:");
+							IOUtils.copy(content, System.out);
+							System.out.println();
+							System.out.println("\t=========================");
+						}
+					}
+				});
+	}
+
 	/**
 	 * Submits a generic cat job with remote input file in order to test staging
 	 * using gridftp 3rd party transfer.
@@ -207,18 +269,20 @@ public class TestJobSubmission {
 	public void simpleGenericJobWithRemoteInput() throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("cat " + config.getInputFileName());
 		job.setApplication("generic");
 
 		job.addInputFileUrl(config.getGsiftpRemoteInputFile());
 
-		job.createJob(config.getFqan());
-		job.submitJob(true);
+		TimedJob timed = new TimedJob(backendname, job);
 
-		job.waitForJobToFinish(4);
+		timed.createJob(config.getFqan());
+		timed.submitJob();
 
-		String stdout = job.getStdOutContent();
+		timed.waitForJobToFinish(4);
+
+		String stdout = timed.getStdOutContent();
 		myLogger.debug("Content: " + stdout);
 
 		assertThat(stdout, containsString("markus"));
@@ -227,6 +291,13 @@ public class TestJobSubmission {
 
 	@After
 	public void tearDown() throws Exception {
+		try {
+			config.cleanJob(si, jobname);
+		} finally {
+			if (session != null) {
+				config.getSessionPool(backendname).release(session);
+			}
+		}
 	}
 
 	/**
@@ -238,16 +309,18 @@ public class TestJobSubmission {
 	public void testClean() throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		String command = "sleep 12345";
 		job.setCommandline(command);
 		job.setApplication("generic");
 		job.addInputFileUrl(config.getKillmeScript());
 
-		String name = job.createJob(config.getFqan());
-		job.submitJob(true);
+		TimedJob timed = new TimedJob(backendname, job);
+
+		String name = timed.createJob(config.getFqan());
+		timed.submitJob();
 
-		job.waitForJobToReachState(JobConstants.ACTIVE, 4);
+		timed.waitForJobToBeActive(4);
 		job.kill(true);
 
 		assertFalse(fm.fileExists(job.getJobDirectoryUrl()));
@@ -265,18 +338,20 @@ public class TestJobSubmission {
 	public void testEnvironmentVariables() throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("env");
 		job.setApplication("generic");
 		job.addEnvironmentVariable("var1","hello, world!");
 		job.addEnvironmentVariable("var2","/tmp/test");
 
-		job.createJob(config.getFqan());
-		job.submitJob(true);
-		job.waitForJobToFinish(4);
+		TimedJob timed = new TimedJob(backendname, job);
+
+		timed.createJob(config.getFqan());
+		timed.submitJob();
+		timed.waitForJobToFinish(4);
 		assertEquals(JobConstants.DONE_STRING, job.getStatusString(true));
 
-		String stdout = job.getStdOutContent();
+		String stdout = timed.getStdOutContent();
 		assertThat(stdout, containsString("var1=hello, world!"));
 		assertThat(stdout, containsString("var2=/tmp/test"));
 		assertThat(stdout, containsString("GRISU_APPLICATION=generic"));
@@ -295,20 +370,25 @@ public class TestJobSubmission {
 	public void testGetStatusSurvivesJobManagerRestart() throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		String command = "bash " + config.getKillJobManagersScriptName() + " 1";
 		job.setCommandline(command);
 		job.setApplication("generic");
 		job.addInputFileUrl(config.getKillJobManagersScript());
 
-		job.createJob(config.getFqan());
-		job.submitJob(true);
+		TimedJob timed = new TimedJob(backendname, job);
+
+		timed.createJob(config.getFqan());
+		timed.submitJob();
 
-		Thread.sleep(15000);
-		job.waitForJobToFinish(3);
+		timed.waitForJobToBeActive(4);
+		// wait until the job managers got killed
+		assertTrue("Job managers not killed in time",
+				JobWaiter.waitFor(job, killedJobManagers(), 120));
+		timed.waitForJobToFinish(3);
 
-		String stdout = job.getStdOutContent();
-		String stderr = job.getStdErrContent();
+		String stdout = timed.getStdOutContent();
+		String stderr = timed.getStdErrContent();
 		String status = job.getStatusString(true);
 		myLogger.warn("stdout: " + stdout);
 		myLogger.warn("stderr: " + stderr);
@@ -327,25 +407,28 @@ public class TestJobSubmission {
 	public void testKill() throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		String command = "bash " + config.getKillmeScriptName() + " 1234";
 		job.setCommandline(command);
 		job.setApplication("generic");
 		job.addInputFileUrl(config.getKillmeScript());
 
-		job.createJob(config.getFqan());
-		job.submitJob(true);
+		TimedJob timed = new TimedJob(backendname, job);
 
-		job.waitForJobToReachState(JobConstants.ACTIVE, 4);
+		timed.createJob(config.getFqan());
+		timed.submitJob();
+
+		timed.waitForJobToBeActive(4);
 		job.kill(false);
-		// job.waitForJobToFinish(3);
 
-        Thread.sleep(60000);
+		assertTrue("Job not killed in time", JobWaiter.waitFor(job,
+				JobWaiter.allOf(JobWaiter.statusIs(JobConstants.KILLED_STRING),
+						JobWaiter.stdoutContains("GOT_KILLED")), 120));
 
-		String stdout = job.getStdOutContent();
+		String stdout = timed.getStdOutContent();
 		String status = job.getStatusString(true);
 		myLogger.warn("stdout: " + stdout);
-		myLogger.warn("stderr: " + job.getStdErrContent());
+		myLogger.warn("stderr: " + timed.getStdErrContent());
 		myLogger.warn("status: " + status);
 		assertEquals(JobConstants.KILLED_STRING, status);
 		assertEquals("GOT_KILLED", stdout.trim());
@@ -363,21 +446,26 @@ public class TestJobSubmission {
 	public void testKillSurvivesJobManagerRestart() throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		String command = "bash " + config.getKillJobManagersScriptName() + " 12345";
 		job.setCommandline(command);
 		job.setApplication("generic");
 		job.addInputFileUrl(config.getKillJobManagersScript());
 
-		job.createJob(config.getFqan());
-		job.submitJob(true);
+		TimedJob timed = new TimedJob(backendname, job);
+
+		timed.createJob(config.getFqan());
+		timed.submitJob();
 
-		Thread.sleep(15000);
+		timed.waitForJobToBeActive(4);
+		// wait until the job managers got killed
+		assertTrue("Job managers not killed in time",
+				JobWaiter.waitFor(job, killedJobManagers(), 120));
 		job.kill(false);
-		job.waitForJobToFinish(3);
+		timed.waitForJobToFinish(3);
 
-		String stdout = job.getStdOutContent();
-		String stderr = job.getStdErrContent();
+		String stdout = timed.getStdOutContent();
+		String stderr = timed.getStdErrContent();
 		String status = job.getStatusString(true);
 		myLogger.warn("stdout: " + stdout);
 		myLogger.warn("stderr: " + stderr);
@@ -387,6 +475,54 @@ public class TestJobSubmission {
 		assertThat(stdout, containsString("GOT_KILLED"));
 	}
 
+	/**
+	 * Submits a job that prints a lot of output and checks it with streaming
+	 * matchers, reporting download speed and heap growth.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testLargeOutput() throws Exception {
+
+		int sizeInMb = config.getLargeOutputSizeInMb();
+
+		GrisuJob job = new GrisuJob(si);
+		job.setJobname(jobname);
+		job.setCommandline("bash " + config.getLargeOutputScriptName() + " "
+				+ sizeInMb);
+		job.setApplication("generic");
+		job.addInputFileUrl(config.getLargeOutputScript());
+
+		TimedJob timed = new TimedJob(backendname, job);
+
+		timed.createJob(config.getFqan());
+		timed.submitJob();
+		timed.waitForJobToFinish(4);
+		assertEquals(JobConstants.DONE_STRING, job.getStatusString(true));
+
+		long heapBefore = AllocationProfiler.getRetainedHeapInBytes();
+
+		long start = System.currentTimeMillis();
+		InputStream stdout = JobOutput.openStdOut(job, fm);
+		long downloadTime = System.currentTimeMillis() - start;
+		InputStream stderr = null;
+		try {
+			assertThat(stdout, streamContainsString("LARGE_OUTPUT_END"));
+			stderr = JobOutput.openStdErr(job, fm);
+			assertThat(stderr, streamIsBlank());
+		} finally {
+			IOUtils.closeQuietly(stdout);
+			IOUtils.closeQuietly(stderr);
+		}
+
+		long heapAfter = AllocationProfiler.getRetainedHeapInBytes();
+		myLogger.warn(String.format(
+				"%s: %d MB stdout downloaded in %d ms (%.2f MB/s), retained heap grew by %d KB",
+				backendname, sizeInMb, downloadTime,
+				sizeInMb / (Math.max(1, downloadTime) / 1000.0),
+				(heapAfter - heapBefore) / 1024));
+	}
+
 	/**
 	 * Checks whether specifying an invalid package throse the expected
 	 * exception.
@@ -397,11 +533,13 @@ public class TestJobSubmission {
 	public void testPackageNotAvailable() throws JobPropertiesException {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("echo nothing");
 		job.setApplication("Invalid");
 
-		job.createJob(config.getFqan());
+		TimedJob timed = new TimedJob(backendname, job);
+
+		timed.createJob(config.getFqan());
 
 	}
 
@@ -415,22 +553,24 @@ public class TestJobSubmission {
 	public void testPythonStdinIssue() throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("python " + config.getPythonScriptName());
 		job.setApplication("Python");
 		job.addInputFileUrl(config.getPythonScript());
 
-		job.createJob(config.getFqan());
+		TimedJob timed = new TimedJob(backendname, job);
 
-		job.submitJob(true);
+		timed.createJob(config.getFqan());
 
-		job.waitForJobToFinish(4);
+		timed.submitJob();
 
-		String stderr = job.getStdErrContent();
+		timed.waitForJobToFinish(4);
+
+		String stderr = timed.getStdErrContent();
 
 		assertTrue("Stderr for job not empty.", StringUtils.isBlank(stderr));
 
-		String stdout = job.getStdOutContent();
+		String stdout = timed.getStdOutContent();
 		myLogger.debug("Content: " + stdout);
 
 		assertEquals("Hello Python World!", stdout.trim());
@@ -447,17 +587,19 @@ public class TestJobSubmission {
 
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("echo " + config.getContent());
 		job.setApplication("generic");
 
-		job.createJob(config.getFqan());
+		TimedJob timed = new TimedJob(backendname, job);
+
+		timed.createJob(config.getFqan());
 
-		job.submitJob(true);
+		timed.submitJob();
 
-		job.waitForJobToFinish(4);
+		timed.waitForJobToFinish(4);
 
-		String stdout = job.getStdOutContent();
+		String stdout = timed.getStdOutContent();
 		myLogger.debug("Content: " + stdout);
 
 		assertEquals(stdout.trim(), config.getContent().trim());
@@ -473,17 +615,19 @@ public class TestJobSubmission {
 	public void testSimpleUnixCommandsJob() throws Exception {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("echo " + config.getContent());
 		job.setApplication("UnixCommands");
 
-		job.createJob(config.getFqan());
+		TimedJob timed = new TimedJob(backendname, job);
 
-		job.submitJob(true);
+		timed.createJob(config.getFqan());
 
-		job.waitForJobToFinish(4);
+		timed.submitJob();
 
-		String stdout = job.getStdOutContent();
+		timed.waitForJobToFinish(4);
+
+		String stdout = timed.getStdOutContent();
 		myLogger.debug("Content: " + stdout);
 
 		assertEquals(stdout.trim(), config.getContent().trim());
@@ -500,12 +644,14 @@ public class TestJobSubmission {
 	public void testVersionNotAvailable() throws JobPropertiesException {
 
 		GrisuJob job = new GrisuJob(si);
-		job.setJobname(config.getJobname());
+		job.setJobname(jobname);
 		job.setCommandline("echo nothing");
 		job.setApplication("UnixCommands");
 		job.setApplicationVersion("Invalid");
 
-		job.createJob(config.getFqan());
+		TimedJob timed = new TimedJob(backendname, job);
+
+		timed.createJob(config.getFqan());
 
 	}
 